@@ -0,0 +1,149 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+/**
+ * Skips frames that show no sign of a barcode, e.g. while the device is moved between shelves.
+ * <p>Lines of the search region are sampled every {@code step} pixels in both directions. Along
+ * each line, edges are steps in luma of at least {@value #EDGE_THRESHOLD}, and only edges whose
+ * direction alternates with the previous edge are counted, as they are at the bars of 1D codes and
+ * the modules of 2D codes. The score is the luma change over those alternating edges per sample in
+ * the stronger direction, so it grows with both contrast and stripe density while a single
+ * shadow boundary or sensor noise hardly counts. Frames scoring below the threshold are skipped.</p>
+ */
+public class BarcodePresenceFilter implements FrameFilter {
+    public static final float DEFAULT_THRESHOLD = 4f;
+    public static final int DEFAULT_STEP = 4;
+    // Smallest luma step that counts as an edge
+    static final int EDGE_THRESHOLD = 16;
+    // Number of lines sampled in each direction
+    private static final int LINES = 24;
+
+    private final int mStep;
+    private volatile float mThreshold;
+    private volatile float mLastScore;
+    private long mSkippedCount;
+    private long mAcceptedCount;
+
+    public BarcodePresenceFilter() {
+        this(DEFAULT_THRESHOLD, DEFAULT_STEP);
+    }
+
+    /**
+     * @param threshold score below which frames are skipped
+     * @param step      distance in pixels between samples along a line
+     */
+    public BarcodePresenceFilter(float threshold, int step) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("Step must be positive");
+        }
+        mThreshold = threshold;
+        mStep = step;
+    }
+
+    public void setThreshold(float threshold) {
+        mThreshold = threshold;
+    }
+
+    public float getThreshold() {
+        return mThreshold;
+    }
+
+    /** Score of the last frame that was checked */
+    public float getLastScore() {
+        return mLastScore;
+    }
+
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Number of frames this filter let through. They may still be skipped by a later filter, so
+     * this is not the number of decoded frames.
+     */
+    public synchronized long getAcceptedCount() {
+        return mAcceptedCount;
+    }
+
+    @Override
+    public boolean accept(Frame frame) {
+        float score = score(frame);
+        mLastScore = score;
+        boolean accepted = score >= mThreshold;
+        synchronized (this) {
+            if (accepted) {
+                mAcceptedCount++;
+            } else {
+                mSkippedCount++;
+            }
+        }
+        return accepted;
+    }
+
+    @Override
+    public void onFrameDecoded(Frame frame, boolean found) {
+    }
+
+    /**
+     * @return the presence score of the search region of a frame
+     */
+    public float score(Frame frame) {
+        FrameGeometry geometry = frame.getGeometry();
+        int dataWidth = geometry.getPreviewWidth();
+        Rect region = frame.getSearchRegion();
+        region = region != null ? geometry.toSensorRect(region)
+                : new Rect(0, 0, dataWidth, geometry.getPreviewHeight());
+        byte[] data = frame.getData();
+
+        // Horizontal lines, stepping along x
+        int energy = 0;
+        int samples = 0;
+        int rowStep = Math.max(1, region.height() / (LINES + 1));
+        int rowSamples = region.width() / mStep;
+        for (int y = region.top + rowStep; y < region.bottom; y += rowStep) {
+            energy += scoreLine(data, y * dataWidth + region.left, mStep, rowSamples);
+            samples += rowSamples;
+        }
+        float horizontal = samples > 0 ? (float) energy / samples : 0f;
+
+        // Vertical lines, stepping along y
+        energy = 0;
+        samples = 0;
+        int columnStep = Math.max(1, region.width() / (LINES + 1));
+        int columnSamples = region.height() / mStep;
+        for (int x = region.left + columnStep; x < region.right; x += columnStep) {
+            energy += scoreLine(data, region.top * dataWidth + x, mStep * dataWidth, columnSamples);
+            samples += columnSamples;
+        }
+        float vertical = samples > 0 ? (float) energy / samples : 0f;
+
+        return Math.max(horizontal, vertical);
+    }
+
+    /**
+     * @return the summed luma change over alternating edges along one line
+     */
+    private static int scoreLine(byte[] data, int offset, int stride, int samples) {
+        int energy = 0;
+        if (samples <= 0) {
+            return 0;
+        }
+        int lastSign = 0;
+        int previous = data[offset] & 0xFF;
+        for (int i = 1; i < samples; i++) {
+            offset += stride;
+            int value = data[offset] & 0xFF;
+            int gradient = value - previous;
+            previous = value;
+            if (gradient >= EDGE_THRESHOLD || gradient <= -EDGE_THRESHOLD) {
+                int sign = gradient > 0 ? 1 : -1;
+                if (sign != lastSign) {
+                    energy += gradient > 0 ? gradient : -gradient;
+                    lastSign = sign;
+                }
+            }
+        }
+        return energy;
+    }
+}
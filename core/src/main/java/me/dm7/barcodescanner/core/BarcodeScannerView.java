@@ -3,30 +3,55 @@ package me.dm7.barcodescanner.core;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Color;
+import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.RelativeLayout;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public abstract class BarcodeScannerView extends FrameLayout implements Camera.PreviewCallback {
+    private static final String TAG = "BarcodeScannerView";
+
     protected static CameraHandlerThread mCameraHandlerThread;
+    private DecodeThread mDecodeThread;
+    // Set while a decode thread of this view is shutting down after it was detached
+    private DecodeThread mStoppingDecodeThread;
     protected CameraWrapper mCameraWrapper;
     protected CameraPreview mPreview;
     protected IViewFinder mViewFinderView;
     protected Rect mFramingRectInPreview;
+    private volatile FrameGeometry mPreviewFrameGeometry;
+    private volatile FrameGeometry mFrameGeometry;
     protected Boolean mFlashState;
     protected boolean mAutofocusState = true;
     protected boolean mShouldScaleToFill = true;
+    protected int mPreviewBufferCount = 0;
+    protected volatile boolean mContinuousScanning = false;
+    private volatile boolean mDecodingPaused = false;
+    private volatile ResultDeduplicator mResultDeduplicator;
+    private volatile RegionTracker mRegionTracker;
+    private final List<FrameFilter> mFrameFilters = new CopyOnWriteArrayList<FrameFilter>();
+    private volatile FramePipeline<?> mFramePipeline;
+    private volatile boolean mCameraReady = false;
+    private volatile CameraStateListener mCameraStateListener;
 
     public BarcodeScannerView(Context context) {
         super(context);
+        CameraCapabilityCache.load(context);
     }
 
     public BarcodeScannerView(Context context, AttributeSet attributeSet) {
         super(context, attributeSet);
+        CameraCapabilityCache.load(context);
         TypedArray a = context.getTheme().obtainStyledAttributes(
                 attributeSet,
                 R.styleable.BarcodeScannerView,
@@ -44,6 +69,7 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
             removeAllViews();
             mPreview = new CameraPreview(getContext(), cameraWrapper, this);
             mPreview.setShouldScaleToFill(mShouldScaleToFill);
+            mPreview.setPreviewBufferCount(mPreviewBufferCount);
             if (!mShouldScaleToFill) {
                 RelativeLayout relativeLayout = new RelativeLayout(getContext());
                 relativeLayout.setGravity(Gravity.CENTER);
@@ -65,6 +91,7 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
         } else {
             // Re-use the SurfaceView/CameraPreview and ViewFinder
             mPreview.setCamera(cameraWrapper, this);
+            mPreview.setPreviewBufferCount(mPreviewBufferCount);
             mPreview.showCameraPreview();
         }
     }
@@ -80,11 +107,39 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
         return new ViewFinderView(context);
     }
 
-    public synchronized void startCamera(int cameraId) {
+    private static synchronized CameraHandlerThread getCameraHandlerThread() {
         if(mCameraHandlerThread == null) {
             mCameraHandlerThread = new CameraHandlerThread();
         }
-        mCameraHandlerThread.startCamera(cameraId, this);
+        return mCameraHandlerThread;
+    }
+
+    /**
+     * <p>Opens the camera and sets its preview size on the camera thread ahead of time, e.g. in
+     * {@code onCreate} or before navigating to the scan screen, so that {@link #startCamera(int)}
+     * with the same camera only has to attach the preview surface.</p>
+     * <p>The camera is released again if no scanner view starts it within a few seconds. Does
+     * nothing while a scanner view uses the camera.</p>
+     */
+    public static void prewarm(Context context, int cameraId) {
+        CameraCapabilityCache.load(context);
+        Point screenResolution = DisplayUtils.getScreenResolution(context);
+        // Preview sizes are matched in landscape orientation
+        getCameraHandlerThread().prewarm(cameraId, Math.max(screenResolution.x, screenResolution.y),
+                Math.min(screenResolution.x, screenResolution.y));
+    }
+
+    public static void prewarm(Context context) {
+        prewarm(context, CameraUtils.getDefaultCameraId());
+    }
+
+    public synchronized void startCamera(int cameraId) {
+        CameraHandlerThread cameraHandlerThread = getCameraHandlerThread();
+        if(mDecodeThread == null) {
+            mDecodeThread = new DecodeThread(mFrameConsumer, mStoppingDecodeThread);
+            mStoppingDecodeThread = null;
+        }
+        cameraHandlerThread.startCamera(cameraId, this);
     }
 
     public void startCamera() {
@@ -92,10 +147,165 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
     }
 
     public void stopCamera() {
+        mCameraReady = false;
         stopAndCleanupCameraPreview();
-        mCameraHandlerThread.stopCamera(this);
+        if(mCameraHandlerThread != null) {
+            mCameraHandlerThread.stopCamera(this);
+        }
+        releaseDecoder();
+    }
+
+    /**
+     * Receives the transitions of the camera session together with the time spent in each state,
+     * e.g. to monitor how long opening the camera and starting the preview take.
+     */
+    public void setCameraStateListener(CameraStateListener cameraStateListener) {
+        mCameraStateListener = cameraStateListener;
+    }
+
+    /**
+     * @return the state of the camera session, which is shared by all scanner views
+     */
+    public CameraState getCameraState() {
+        CameraHandlerThread cameraHandlerThread = mCameraHandlerThread;
+        return cameraHandlerThread != null ? cameraHandlerThread.getCameraState() : CameraState.IDLE;
+    }
+
+    // Called on the camera thread for the view the camera was last handed to
+    void onCameraStateChanged(CameraState from, CameraState to, long elapsedMillis) {
+        CameraStateListener cameraStateListener = mCameraStateListener;
+        if(cameraStateListener != null) {
+            cameraStateListener.onCameraStateChanged(from, to, elapsedMillis);
+        }
+    }
+
+    /**
+     * Releases the decoder on the decode thread. The thread is kept for the next start, so that
+     * the decoder is only ever used by one thread and a quick restart cannot decode while the
+     * decoder is released.
+     */
+    private synchronized void releaseDecoder() {
+        if(mDecodeThread != null) {
+            mDecodeThread.release(mReleaseDecoder);
+        }
     }
 
+    @Override
+    protected synchronized void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if(mDecodeThread != null) {
+            mDecodeThread.shutdown(mReleaseDecoder);
+            mStoppingDecodeThread = mDecodeThread;
+            mDecodeThread = null;
+        }
+    }
+
+    // Runs on the decode thread after the last frame was decoded
+    private final Runnable mReleaseDecoder = new Runnable() {
+        @Override
+        public void run() {
+            FramePipeline<?> framePipeline = mFramePipeline;
+            if(framePipeline != null) {
+                framePipeline.release();
+            }
+        }
+    };
+
+    /**
+     * Plugs in the decoder preview frames are passed to. Results are posted to the callback on
+     * the main thread.
+     */
+    protected <T> void setFrameDecoder(FrameDecoder<T> decoder, FrameResultCallback<T> callback) {
+        mFramePipeline = new FramePipeline<T>(this, decoder, callback);
+    }
+
+    private void resetFramePipeline() {
+        FramePipeline<?> framePipeline = mFramePipeline;
+        if(framePipeline != null) {
+            framePipeline.reset();
+        }
+    }
+
+    /**
+     * Called on the main thread when the first preview frame of a camera session arrived.
+     */
+    protected void onCameraReady() {
+    }
+
+    /**
+     * Preview frames are handed to a dedicated decode thread, keeping only the newest frame while
+     * a decode is in progress. Frames are decoded in {@link #decodeFrame(byte[], Camera)}.
+     */
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        if(!mCameraReady) {
+            mCameraReady = true;
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    onCameraReady();
+                }
+            });
+        }
+
+        DecodeThread decodeThread = mDecodeThread;
+        if(mDecodingPaused) {
+            finishFrame(data);
+        } else if(decodeThread != null) {
+            decodeThread.submit(data, camera);
+        } else {
+            mFrameConsumer.dropFrame(data, camera);
+        }
+    }
+
+    /**
+     * Decodes a single preview frame with the {@link FrameDecoder}. Runs on the decode thread,
+     * never on the camera thread. Overrides must call either
+     * {@link #requestNextFrame(byte[], Camera)} or {@link #finishFrame(byte[])} once they are done
+     * with the frame.
+     */
+    protected void decodeFrame(byte[] data, Camera camera) {
+        FramePipeline<?> framePipeline = mFramePipeline;
+        if(framePipeline != null) {
+            framePipeline.process(data, camera);
+        } else {
+            finishFrame(data);
+        }
+    }
+
+    /**
+     * @return number of frames dropped because a newer frame arrived while decoding
+     */
+    public long getDroppedFrameCount() {
+        DecodeThread decodeThread = mDecodeThread;
+        return decodeThread != null ? decodeThread.getDroppedFrameCount() : 0;
+    }
+
+    private final DecodeThread.FrameConsumer mFrameConsumer = new DecodeThread.FrameConsumer() {
+        @Override
+        public void decodeFrame(byte[] data, Camera camera) {
+            if(mDecodingPaused) {
+                finishFrame(data);
+            } else {
+                BarcodeScannerView.this.decodeFrame(data, camera);
+            }
+        }
+
+        @Override
+        public void dropFrame(byte[] data, Camera camera) {
+            if(mDecodingPaused) {
+                finishFrame(data);
+                return;
+            }
+            try {
+                requestNextFrame(data, camera);
+            } catch (RuntimeException e) {
+                // Camera might already be released
+                Log.e(TAG, e.toString(), e);
+            }
+        }
+    };
+
     public void switchCamera(int cameraId) {
         if (mCameraHandlerThread != null) {
             mCameraHandlerThread.stopCamera(this);
@@ -105,6 +315,7 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
 
     public void setupCameraPreview(CameraWrapper cameraWrapper) {
         mCameraWrapper = cameraWrapper;
+        resetFramePipeline();
         if (mCameraWrapper != null) {
             setupLayout(mCameraWrapper);
             if (mFlashState != null) {
@@ -128,11 +339,71 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
     }
 
     protected void resumeCameraPreview() {
+        resetFramePipeline();
         if(mPreview != null) {
             mPreview.showCameraPreview();
         }
     }
 
+    /**
+     * Should be called from {@link #onPreviewFrame(byte[], Camera)} when a frame did not produce a
+     * result, so that the next preview frame gets delivered.
+     */
+    protected void requestNextFrame(byte[] data, Camera camera) {
+        if (mPreview != null) {
+            mPreview.requestNextFrame(data, camera, this);
+        } else {
+            camera.setOneShotPreviewCallback(this);
+        }
+    }
+
+    /**
+     * Should be called from {@link #onPreviewFrame(byte[], Camera)} when a frame produced a
+     * result. No more frames are delivered until the preview is resumed.
+     */
+    protected void finishFrame(byte[] data) {
+        if (mPreview != null) {
+            mPreview.finishFrame(data);
+        }
+    }
+
+    /**
+     * Geometry of the current preview frames including the framing rect. Cheap enough to be
+     * called for every frame: it is only recomputed after the preview geometry changed.
+     *
+     * @return frame geometry or null if the preview is not set up yet
+     */
+    public FrameGeometry getFrameGeometry() {
+        CameraPreview preview = mPreview;
+        if (preview == null) {
+            return null;
+        }
+        FrameGeometry previewGeometry = preview.getFrameGeometry();
+        if (previewGeometry == null) {
+            return null;
+        }
+        FrameGeometry geometry = mFrameGeometry;
+        if (geometry != null && mPreviewFrameGeometry == previewGeometry) {
+            return geometry;
+        }
+        return updateFrameGeometry(previewGeometry);
+    }
+
+    private synchronized FrameGeometry updateFrameGeometry(FrameGeometry previewGeometry) {
+        if (mPreviewFrameGeometry != previewGeometry) {
+            // Frame size or rotation changed, the framing rect has to be mapped again
+            mFramingRectInPreview = null;
+        }
+        Rect framingRect = getFramingRectInPreview(previewGeometry.getRotatedWidth(),
+                previewGeometry.getRotatedHeight());
+        FrameGeometry geometry = previewGeometry.withFramingRect(framingRect);
+        if (framingRect != null) {
+            mPreviewFrameGeometry = previewGeometry;
+            mFrameGeometry = geometry;
+        }
+        return geometry;
+    }
+
     public synchronized Rect getFramingRectInPreview(int previewWidth, int previewHeight) {
         if (mFramingRectInPreview == null) {
             Rect framingRect = mViewFinderView.getFramingRect();
@@ -213,4 +484,129 @@ public abstract class BarcodeScannerView extends FrameLayout implements Camera.P
     public void setShouldScaleToFill(boolean shouldScaleToFill) {
         mShouldScaleToFill = shouldScaleToFill;
     }
+
+    /**
+     * <p>In continuous mode the camera preview keeps running after a result is found and every
+     * result is passed on to the result handler as it is decoded. Use
+     * {@link #pauseDecoding()} and {@link #resumeDecoding()} to stop and restart decoding without
+     * stopping the camera.</p>
+     * <p>By default the preview is stopped after the first result until it is resumed.</p>
+     */
+    public void setContinuousScanning(boolean continuousScanning) {
+        mContinuousScanning = continuousScanning;
+    }
+
+    public boolean isContinuousScanning() {
+        return mContinuousScanning;
+    }
+
+    /**
+     * Suppresses results that were already delivered less than {@code windowMillis} ago, e.g. a
+     * label that stays in frame while scanning continuously.
+     *
+     * @param windowMillis time after which the same code is delivered again, 0 to deliver every
+     *                     result
+     */
+    public void setDuplicateSuppressionWindow(long windowMillis) {
+        mResultDeduplicator = windowMillis > 0 ? new ResultDeduplicator(windowMillis) : null;
+    }
+
+    /**
+     * @return the deduplicator in use, e.g. to read its counters, or null if duplicate
+     * suppression is disabled
+     */
+    public ResultDeduplicator getResultDeduplicator() {
+        return mResultDeduplicator;
+    }
+
+    /**
+     * Should be called by subclasses before delivering a result.
+     *
+     * @return true if the same result was already delivered within the suppression window
+     */
+    protected boolean isDuplicateResult(String format, byte[] data) {
+        ResultDeduplicator deduplicator = mResultDeduplicator;
+        return deduplicator != null && !deduplicator.accept(format, data);
+    }
+
+    /**
+     * When enabled, frames following a successful decode only search the region around where the
+     * barcodes were found, until that region comes up empty. This makes rescanning the same
+     * labels in continuous mode much cheaper.
+     */
+    public void setRegionTracking(boolean regionTracking) {
+        mRegionTracker = regionTracking ? new RegionTracker() : null;
+    }
+
+    /**
+     * @return the region tracker in use, e.g. to read its counters, or null if region tracking is
+     * disabled
+     */
+    public RegionTracker getRegionTracker() {
+        return mRegionTracker;
+    }
+
+    /**
+     * Adds a filter that decides whether a frame is worth decoding, e.g. a
+     * {@link BarcodePresenceFilter}. Filters run on the decode thread in the order they were added.
+     */
+    public void addFrameFilter(FrameFilter filter) {
+        if (filter != null) {
+            mFrameFilters.add(filter);
+        }
+    }
+
+    public void removeFrameFilter(FrameFilter filter) {
+        mFrameFilters.remove(filter);
+    }
+
+    /**
+     * @return the filters added with {@link #addFrameFilter(FrameFilter)}
+     */
+    List<FrameFilter> getFrameFilters() {
+        return mFrameFilters;
+    }
+
+    /**
+     * Stops decoding preview frames while the camera preview keeps running.
+     */
+    public void pauseDecoding() {
+        mDecodingPaused = true;
+        DecodeThread decodeThread = mDecodeThread;
+        if(decodeThread != null) {
+            decodeThread.clear();
+        }
+    }
+
+    /**
+     * Resumes decoding after {@link #pauseDecoding()}.
+     */
+    public void resumeDecoding() {
+        if(!mDecodingPaused) {
+            return;
+        }
+        mDecodingPaused = false;
+        if(mPreview != null) {
+            mPreview.resumeFrameDelivery();
+        }
+    }
+
+    public boolean isDecodingPaused() {
+        return mDecodingPaused;
+    }
+
+    /**
+     * <p>Sets the number of preallocated buffers preview frames are delivered in.</p>
+     * <p>By default (0) a new frame is requested after every decode attempt and the camera
+     * allocates a fresh buffer for each one. A count of 2 or 3 keeps the camera streaming into a
+     * fixed set of buffers instead, so scanning does not allocate per frame.</p>
+     *
+     * @param count number of buffers, 0 to use one-shot preview callbacks
+     */
+    public void setPreviewBufferCount(int count) {
+        mPreviewBufferCount = Math.max(0, count);
+        if (mPreview != null) {
+            mPreview.setPreviewBufferCount(mPreviewBufferCount);
+        }
+    }
 }
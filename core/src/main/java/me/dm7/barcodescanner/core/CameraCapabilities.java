@@ -0,0 +1,112 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Point;
+import android.hardware.Camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a camera supports, as cached by {@link CameraCapabilityCache}.
+ * <p>Facing and orientation are known for every camera. The lists read from the camera
+ * parameters are only known once the camera was opened, see {@link #hasParameters()}.</p>
+ */
+public class CameraCapabilities {
+    private final int mFacing;
+    private final int mOrientation;
+    private final List<Point> mPreviewSizes;
+    private final List<String> mFlashModes;
+    private final List<String> mFocusModes;
+    private final List<int[]> mPreviewFpsRanges;
+
+    CameraCapabilities(int facing, int orientation, List<Point> previewSizes, List<String> flashModes,
+                       List<String> focusModes, List<int[]> previewFpsRanges) {
+        mFacing = facing;
+        mOrientation = orientation;
+        mPreviewSizes = unmodifiable(previewSizes);
+        mFlashModes = unmodifiable(flashModes);
+        mFocusModes = unmodifiable(focusModes);
+        mPreviewFpsRanges = unmodifiable(previewFpsRanges);
+    }
+
+    static CameraCapabilities fromCameraInfo(Camera.CameraInfo info) {
+        return new CameraCapabilities(info.facing, info.orientation, null, null, null, null);
+    }
+
+    CameraCapabilities withParameters(Camera.Parameters parameters) {
+        List<Point> previewSizes = new ArrayList<Point>();
+        List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
+        if (sizes != null) {
+            for (Camera.Size size : sizes) {
+                previewSizes.add(new Point(size.width, size.height));
+            }
+        }
+        List<int[]> fpsRanges = parameters.getSupportedPreviewFpsRange();
+        return new CameraCapabilities(mFacing, mOrientation, previewSizes,
+                emptyIfNull(parameters.getSupportedFlashModes()), emptyIfNull(parameters.getSupportedFocusModes()),
+                fpsRanges != null ? fpsRanges : Collections.<int[]>emptyList());
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        return list != null ? Collections.unmodifiableList(list) : null;
+    }
+
+    private static List<String> emptyIfNull(List<String> list) {
+        return list != null ? list : Collections.<String>emptyList();
+    }
+
+    /**
+     * @return one of {@link Camera.CameraInfo#CAMERA_FACING_BACK} and
+     * {@link Camera.CameraInfo#CAMERA_FACING_FRONT}
+     */
+    public int getFacing() {
+        return mFacing;
+    }
+
+    /**
+     * @return orientation of the camera image, see {@link Camera.CameraInfo#orientation}
+     */
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * @return true if the lists below are known
+     */
+    public boolean hasParameters() {
+        return mPreviewSizes != null;
+    }
+
+    /**
+     * @return supported preview sizes, width in x and height in y, or null if not known
+     */
+    public List<Point> getPreviewSizes() {
+        return mPreviewSizes;
+    }
+
+    public List<String> getFlashModes() {
+        return mFlashModes;
+    }
+
+    public List<String> getFocusModes() {
+        return mFocusModes;
+    }
+
+    /**
+     * @return supported preview frame rate ranges, minimum and maximum scaled by 1000
+     */
+    public List<int[]> getPreviewFpsRanges() {
+        return mPreviewFpsRanges;
+    }
+
+    /**
+     * @return true if the camera has a flash mode besides off. Only meaningful if
+     * {@link #hasParameters()}.
+     */
+    public boolean isFlashSupported() {
+        /* Credits: Top answer at http://stackoverflow.com/a/19599365/868173 */
+        return mFlashModes != null && !mFlashModes.isEmpty()
+                && !(mFlashModes.size() == 1 && mFlashModes.get(0).equals(Camera.Parameters.FLASH_MODE_OFF));
+    }
+}
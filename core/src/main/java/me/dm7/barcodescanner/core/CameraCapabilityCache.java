@@ -0,0 +1,359 @@
+package me.dm7.barcodescanner.core;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.hardware.Camera;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps the capabilities of the cameras, see {@link CameraCapabilities}, in memory and in a small
+ * file in the cache directory, so that starting the camera does not have to enumerate the
+ * cameras and parse their parameters every time.
+ * <p>The file is keyed on {@link Build#FINGERPRINT} and dropped after a system update. Call
+ * {@link #load(Context)} early, e.g. in {@code Application.onCreate}. Scanner views load it
+ * when they are created. The file is read and written on a background thread, lookups never
+ * wait for it: until it is loaded, and for cameras missing from it, the cameras are queried
+ * directly. The number of cameras is checked against {@link Camera#getNumberOfCameras()} once,
+ * when the file is read or on the first lookup, and cached after that. Call {@link #clear()} to
+ * pick up cameras that were added or removed while the process runs.</p>
+ */
+public final class CameraCapabilityCache {
+    private static final String TAG = "CameraCapabilityCache";
+    private static final String FILE_NAME = "me.dm7.barcodescanner.camera_capabilities";
+    private static final int VERSION = 1;
+
+    // Set once load was called
+    private static Context sContext;
+    // Set once the file was read
+    private static File sFile;
+    private static ExecutorService sIoExecutor;
+    private static CameraCapabilities[] sCapabilities;
+    private static long sHitCount;
+    private static long sMissCount;
+
+    private CameraCapabilityCache() {
+    }
+
+    /**
+     * Starts reading the cache file in the background if that was not done yet.
+     */
+    public static synchronized void load(Context context) {
+        if (sContext != null) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        sContext = appContext;
+        getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(appContext.getCacheDir(), FILE_NAME);
+                CameraCapabilities[] loaded = readFile(file);
+                int numberOfCameras = Camera.getNumberOfCameras();
+                synchronized (CameraCapabilityCache.class) {
+                    sFile = file;
+                    if (loaded == null || loaded.length != numberOfCameras) {
+                        // Missing, outdated or the cameras changed, keep what was queried so far
+                        scheduleSave();
+                    } else if (merge(loaded)) {
+                        scheduleSave();
+                    }
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getIoExecutor() {
+        if (sIoExecutor == null) {
+            sIoExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CameraCapabilityCache");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sIoExecutor;
+    }
+
+    /**
+     * Adds the loaded capabilities to those queried while the file was read.
+     *
+     * @return true if the file misses capabilities that were queried
+     */
+    // Called with the lock held
+    private static boolean merge(CameraCapabilities[] loaded) {
+        if (sCapabilities == null || sCapabilities.length != loaded.length) {
+            sCapabilities = loaded;
+            return false;
+        }
+        boolean changed = false;
+        for (int i = 0; i < loaded.length; i++) {
+            if (loaded[i].hasParameters() || !sCapabilities[i].hasParameters()) {
+                sCapabilities[i] = loaded[i];
+            } else {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static CameraCapabilities[] readFile(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() == VERSION && Build.FINGERPRINT.equals(in.readUTF())) {
+                return read(in);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + file, e);
+        } finally {
+            close(in);
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the cached capabilities and deletes the cache file.
+     */
+    public static synchronized void clear() {
+        sCapabilities = null;
+        final File file = sFile;
+        if (file != null) {
+            getIoExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (file.exists() && !file.delete()) {
+                        Log.w(TAG, "Cannot delete " + file);
+                    }
+                }
+            });
+        }
+    }
+
+    public static synchronized int getNumberOfCameras() {
+        return getCapabilities().length;
+    }
+
+    /**
+     * @return facing and orientation of the camera, the other capabilities only if they are
+     * cached already
+     */
+    public static synchronized CameraCapabilities get(int cameraId) {
+        CameraCapabilities[] capabilities = getCapabilities();
+        int index = toIndex(cameraId);
+        return index < capabilities.length ? capabilities[index] : null;
+    }
+
+    /**
+     * @param camera the opened camera, its parameters are read if they are not cached yet
+     * @return all capabilities of the camera
+     */
+    public static CameraCapabilities get(int cameraId, Camera camera) {
+        CameraCapabilities capabilities = get(cameraId);
+        if (capabilities != null && capabilities.hasParameters()) {
+            return countHit(capabilities);
+        }
+        return get(cameraId, camera.getParameters());
+    }
+
+    /**
+     * Same as {@link #get(int, Camera)} for callers that already read the parameters.
+     */
+    public static CameraCapabilities get(int cameraId, Camera.Parameters parameters) {
+        synchronized (CameraCapabilityCache.class) {
+            CameraCapabilities capabilities = get(cameraId);
+            if (capabilities != null && capabilities.hasParameters()) {
+                return countHit(capabilities);
+            }
+            sMissCount++;
+            if (capabilities == null) {
+                // Camera ids changed while the process runs, e.g. an external camera
+                return CameraCapabilities.fromCameraInfo(getCameraInfo(cameraId)).withParameters(parameters);
+            }
+            capabilities = capabilities.withParameters(parameters);
+            sCapabilities[toIndex(cameraId)] = capabilities;
+            scheduleSave();
+            return capabilities;
+        }
+    }
+
+    /**
+     * @return number of capability lookups answered from the cache
+     */
+    public static synchronized long getHitCount() {
+        return sHitCount;
+    }
+
+    /**
+     * @return number of capability lookups that had to read the camera parameters
+     */
+    public static synchronized long getMissCount() {
+        return sMissCount;
+    }
+
+    private static CameraCapabilities countHit(CameraCapabilities capabilities) {
+        synchronized (CameraCapabilityCache.class) {
+            sHitCount++;
+        }
+        return capabilities;
+    }
+
+    // Camera.open() without id opens the first back-facing camera, which has id 0
+    private static int toIndex(int cameraId) {
+        return cameraId == -1 ? Camera.CameraInfo.CAMERA_FACING_BACK : cameraId;
+    }
+
+    private static Camera.CameraInfo getCameraInfo(int cameraId) {
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(toIndex(cameraId), info);
+        return info;
+    }
+
+    // Called with the lock held
+    private static CameraCapabilities[] getCapabilities() {
+        if (sCapabilities == null) {
+            int numberOfCameras = Camera.getNumberOfCameras();
+            sCapabilities = new CameraCapabilities[numberOfCameras];
+            for (int i = 0; i < numberOfCameras; i++) {
+                sCapabilities[i] = CameraCapabilities.fromCameraInfo(getCameraInfo(i));
+            }
+            scheduleSave();
+        }
+        return sCapabilities;
+    }
+
+    // Called with the lock held
+    private static void scheduleSave() {
+        final File file = sFile;
+        if (file == null || sCapabilities == null) {
+            // Saved once the file was read
+            return;
+        }
+        final CameraCapabilities[] capabilities = sCapabilities.clone();
+        getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                writeFile(file, capabilities);
+            }
+        });
+    }
+
+    private static void writeFile(File file, CameraCapabilities[] capabilities) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(VERSION);
+            out.writeUTF(Build.FINGERPRINT);
+            write(out, capabilities);
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                Log.w(TAG, "Cannot write " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write " + file, e);
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void write(DataOutputStream out, CameraCapabilities[] capabilities) throws IOException {
+        out.writeInt(capabilities.length);
+        for (CameraCapabilities camera : capabilities) {
+            out.writeByte(camera.getFacing());
+            out.writeShort(camera.getOrientation());
+            out.writeBoolean(camera.hasParameters());
+            if (!camera.hasParameters()) {
+                continue;
+            }
+            out.writeShort(camera.getPreviewSizes().size());
+            for (Point size : camera.getPreviewSizes()) {
+                out.writeShort(size.x);
+                out.writeShort(size.y);
+            }
+            writeStrings(out, camera.getFlashModes());
+            writeStrings(out, camera.getFocusModes());
+            out.writeShort(camera.getPreviewFpsRanges().size());
+            for (int[] range : camera.getPreviewFpsRanges()) {
+                out.writeInt(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX]);
+                out.writeInt(range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+            }
+        }
+    }
+
+    private static CameraCapabilities[] read(DataInputStream in) throws IOException {
+        CameraCapabilities[] capabilities = new CameraCapabilities[in.readInt()];
+        for (int i = 0; i < capabilities.length; i++) {
+            int facing = in.readByte();
+            int orientation = in.readShort();
+            if (!in.readBoolean()) {
+                capabilities[i] = new CameraCapabilities(facing, orientation, null, null, null, null);
+                continue;
+            }
+            int sizeCount = in.readShort();
+            List<Point> previewSizes = new ArrayList<Point>(sizeCount);
+            for (int j = 0; j < sizeCount; j++) {
+                previewSizes.add(new Point(in.readShort(), in.readShort()));
+            }
+            List<String> flashModes = readStrings(in);
+            List<String> focusModes = readStrings(in);
+            int rangeCount = in.readShort();
+            List<int[]> fpsRanges = new ArrayList<int[]>(rangeCount);
+            for (int j = 0; j < rangeCount; j++) {
+                int[] range = new int[2];
+                range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] = in.readInt();
+                range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] = in.readInt();
+                fpsRanges.add(range);
+            }
+            capabilities[i] = new CameraCapabilities(facing, orientation, previewSizes, flashModes, focusModes, fpsRanges);
+        }
+        return capabilities;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeShort(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readShort();
+        List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+}
@@ -1,16 +1,50 @@
 package me.dm7.barcodescanner.core;
 
+import android.graphics.Point;
+import android.hardware.Camera;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
 
 // This code is mostly based on the top answer here: http://stackoverflow.com/questions/18149964/best-use-of-handlerthread-over-other-similar-classes
+/**
+ * Runs the camera session as a state machine on its own thread.
+ * <p>{@link #startCamera(int, BarcodeScannerView)} and {@link #stopCamera(BarcodeScannerView)}
+ * only record the requested state and schedule a single pass that moves the session towards it,
+ * so the thread never waits for another request. Requests arriving before that pass ran are
+ * merged: a stop followed by a start of the same camera keeps the camera open and only hands it
+ * to the view again, a start followed by a stop never opens the camera.</p>
+ * <p>A camera can be prewarmed before any view asks for it, see
+ * {@link #prewarm(int, int, int)}. The first view starting the same camera takes it over.</p>
+ */
 class CameraHandlerThread extends HandlerThread {
-    private final NonReentrantLock lock = new NonReentrantLock();
-    private CameraWrapper cameraWrapper;
+    private static final String TAG = "CameraHandlerThread";
+    // A prewarmed camera no view took over is released after this time
+    static final long PREWARM_TIMEOUT_MILLIS = 5000;
+
     private final Handler localHandler;
     private final Handler mainHandler;
 
+    // Requested state, guarded by this
+    private BarcodeScannerView mRequestedView;
+    private int mRequestedCameraId;
+    private long mRequestGeneration;
+    private boolean mUpdatePosted;
+    private boolean mPrewarm;
+    private int mPrewarmWidth;
+    private int mPrewarmHeight;
+
+    // Session state, only changed on this thread
+    private volatile CameraState mState = CameraState.IDLE;
+    private long mStateEnteredAt = SystemClock.elapsedRealtime();
+    private CameraWrapper cameraWrapper;
+    private BarcodeScannerView mOwnerView;
+    private long mDeliveredGeneration;
+
     CameraHandlerThread() {
         super("CameraHandlerThread");
         start();
@@ -18,37 +52,185 @@ class CameraHandlerThread extends HandlerThread {
         mainHandler = new Handler(Looper.getMainLooper());
     }
 
-    void startCamera(final int cameraId, final BarcodeScannerView mScannerView) {
-        localHandler.post(new Runnable() {
+    void startCamera(int cameraId, BarcodeScannerView scannerView) {
+        synchronized (this) {
+            mRequestedView = scannerView;
+            mRequestedCameraId = cameraId;
+            mPrewarm = false;
+            requestUpdate();
+        }
+    }
+
+    /**
+     * Opens the camera without a view and sets the preview size best matching the given size,
+     * unless a view already uses the camera.
+     *
+     * @param width  expected width of the preview in landscape orientation
+     * @param height expected height of the preview in landscape orientation
+     */
+    void prewarm(int cameraId, int width, int height) {
+        final long generation;
+        synchronized (this) {
+            if (mRequestedView != null) {
+                return;
+            }
+            mRequestedCameraId = cameraId;
+            mPrewarm = true;
+            mPrewarmWidth = width;
+            mPrewarmHeight = height;
+            requestUpdate();
+            generation = mRequestGeneration;
+        }
+        localHandler.postDelayed(new Runnable() {
             @Override
             public void run() {
-                try {
-                    lock.lock();
-                    cameraWrapper = CameraWrapper.getWrapper(CameraUtils.getCameraInstance(cameraId), cameraId);
+                synchronized (CameraHandlerThread.this) {
+                    if (mPrewarm && mRequestGeneration == generation) {
+                        mPrewarm = false;
+                        requestUpdate();
+                    }
+                }
+            }
+        }, PREWARM_TIMEOUT_MILLIS);
+    }
 
-                    mainHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mScannerView.setupCameraPreview(cameraWrapper);
-                        }
-                    });
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+    void stopCamera(BarcodeScannerView scannerView) {
+        synchronized (this) {
+            if (mRequestedView != scannerView) {
+                // Another view took the camera over in the meantime
+                return;
+            }
+            mRequestedView = null;
+            mPrewarm = false;
+            requestUpdate();
+        }
+    }
+
+    CameraState getCameraState() {
+        return mState;
+    }
+
+    // Called with the lock held
+    private void requestUpdate() {
+        mRequestGeneration++;
+        if (!mUpdatePosted) {
+            mUpdatePosted = true;
+            localHandler.post(mUpdateSession);
+        }
+    }
+
+    private synchronized boolean isCurrentRequest(long generation) {
+        return mRequestGeneration == generation;
+    }
+
+    private final Runnable mUpdateSession = new Runnable() {
+        @Override
+        public void run() {
+            BarcodeScannerView view;
+            int cameraId;
+            long generation;
+            boolean prewarm;
+            int prewarmWidth;
+            int prewarmHeight;
+            synchronized (CameraHandlerThread.this) {
+                mUpdatePosted = false;
+                view = mRequestedView;
+                cameraId = mRequestedCameraId;
+                generation = mRequestGeneration;
+                prewarm = mPrewarm;
+                prewarmWidth = mPrewarmWidth;
+                prewarmHeight = mPrewarmHeight;
+            }
+
+            if (cameraWrapper != null && ((view == null && !prewarm) || cameraWrapper.mCameraId != cameraId)) {
+                closeCamera();
+            }
+            if (view == null) {
+                // Nobody follows the state of a prewarmed camera
+                mOwnerView = null;
+                if (prewarm && cameraWrapper == null) {
+                    openCamera(cameraId);
+                    if (cameraWrapper != null) {
+                        setPreviewSize(prewarmWidth, prewarmHeight);
+                    }
                 }
+                return;
             }
-        });
+            if (generation == mDeliveredGeneration) {
+                return;
+            }
+            mOwnerView = view;
+            if (cameraWrapper == null) {
+                openCamera(cameraId);
+            } else if (mState == CameraState.PREVIEWING) {
+                // The view starts its preview again with the camera that is still open
+                setState(CameraState.OPEN);
+            }
+            mDeliveredGeneration = generation;
+            deliverCamera(view, cameraWrapper, generation);
+        }
+    };
+
+    private void openCamera(int cameraId) {
+        setState(CameraState.OPENING);
+        cameraWrapper = CameraWrapper.getWrapper(CameraUtils.getCameraInstance(cameraId), cameraId);
+        setState(cameraWrapper != null ? CameraState.OPEN : CameraState.IDLE);
+    }
+
+    private void setPreviewSize(int width, int height) {
+        try {
+            Camera.Parameters parameters = cameraWrapper.mCamera.getParameters();
+            List<Point> sizes = CameraCapabilityCache.get(cameraWrapper.mCameraId, parameters).getPreviewSizes();
+            Point size = CameraPreview.getOptimalPreviewSize(sizes, width, height);
+            if (size != null) {
+                parameters.setPreviewSize(size.x, size.y);
+                cameraWrapper.mCamera.setParameters(parameters);
+            }
+        } catch (RuntimeException e) {
+            // The view sets the parameters again
+            Log.e(TAG, e.toString(), e);
+        }
+    }
+
+    private void closeCamera() {
+        setState(CameraState.CLOSING);
+        cameraWrapper.mCamera.release();
+        cameraWrapper = null;
+        setState(CameraState.IDLE);
     }
 
-    void stopCamera(final BarcodeScannerView mScannerView) {
-        localHandler.post(new Runnable() {
+    private void deliverCamera(final BarcodeScannerView view, final CameraWrapper wrapper, final long generation) {
+        mainHandler.post(new Runnable() {
             @Override
             public void run() {
-                if (cameraWrapper != null && cameraWrapper.mCamera != null) {
-                    cameraWrapper.mCamera.release();
+                if (!isCurrentRequest(generation)) {
+                    // Superseded by a later request, which delivers again if needed
+                    return;
+                }
+                view.setupCameraPreview(wrapper);
+                if (wrapper != null) {
+                    localHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (cameraWrapper == wrapper && mState == CameraState.OPEN) {
+                                setState(CameraState.PREVIEWING);
+                            }
+                        }
+                    });
                 }
-
-                lock.unlock();
             }
         });
     }
+
+    private void setState(CameraState state) {
+        long now = SystemClock.elapsedRealtime();
+        CameraState previous = mState;
+        long elapsed = now - mStateEnteredAt;
+        mState = state;
+        mStateEnteredAt = now;
+        BarcodeScannerView ownerView = mOwnerView;
+        if (ownerView != null) {
+            ownerView.onCameraStateChanged(previous, state, elapsed);
+        }
+    }
 }
@@ -2,6 +2,7 @@ package me.dm7.barcodescanner.core;
 
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
 import android.os.Handler;
@@ -27,6 +28,10 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
     private boolean mSurfaceCreated = false;
     private boolean mShouldScaleToFill = true;
     private Camera.PreviewCallback mPreviewCallback;
+    private int mPreviewBufferCount = 0;
+    private int mPreviewBufferSize;
+    private PreviewBufferRing mBufferRing;
+    private volatile FrameGeometry mFrameGeometry;
 
     public CameraPreview(Context context, CameraWrapper cameraWrapper, Camera.PreviewCallback previewCallback) {
         super(context);
@@ -54,6 +59,20 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         mShouldScaleToFill = scaleToFill;
     }
 
+    /**
+     * Number of preallocated buffers used to deliver preview frames. With a count of 0 every frame
+     * is requested through {@link Camera#setOneShotPreviewCallback(Camera.PreviewCallback)},
+     * otherwise frames are written into a fixed ring of buffers that is reused for the whole
+     * preview session. Takes effect the next time the preview is started.
+     */
+    public void setPreviewBufferCount(int count) {
+        mPreviewBufferCount = Math.max(0, count);
+    }
+
+    public int getPreviewBufferCount() {
+        return mPreviewBufferCount;
+    }
+
     @Override
     public void surfaceCreated(SurfaceHolder surfaceHolder) {
         mSurfaceCreated = true;
@@ -82,7 +101,7 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
                 setupCameraParameters();
                 mCameraWrapper.mCamera.setPreviewDisplay(getHolder());
                 mCameraWrapper.mCamera.setDisplayOrientation(getDisplayOrientation());
-                mCameraWrapper.mCamera.setOneShotPreviewCallback(mPreviewCallback);
+                setupPreviewCallback();
                 mCameraWrapper.mCamera.startPreview();
                 if(mAutoFocus) {
                     if (mSurfaceCreated) { // check if surface created before using autofocus
@@ -97,6 +116,60 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         }
     }
 
+    private void setupPreviewCallback() {
+        if (mBufferRing != null && mBufferRing.getDepth() != mPreviewBufferCount) {
+            mBufferRing.detach();
+            mBufferRing = null;
+        }
+        if (mPreviewBufferCount > 0) {
+            if (mBufferRing == null) {
+                mBufferRing = new PreviewBufferRing(mPreviewBufferCount);
+            }
+            mBufferRing.attach(mCameraWrapper.mCamera, mPreviewBufferSize, mPreviewCallback);
+        } else {
+            mCameraWrapper.mCamera.setOneShotPreviewCallback(mPreviewCallback);
+        }
+    }
+
+    /**
+     * Arms frame delivery again after {@link #finishFrame(byte[])} without restarting the preview.
+     */
+    public void resumeFrameDelivery() {
+        if (mCameraWrapper != null && mPreviewing) {
+            try {
+                setupPreviewCallback();
+            } catch (Exception e) {
+                Log.e(TAG, e.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Called once a preview frame has been processed without a result. Hands the buffer back to
+     * the ring or, in one-shot mode, arms the callback for the next frame.
+     */
+    public void requestNextFrame(byte[] data, Camera camera, Camera.PreviewCallback callback) {
+        PreviewBufferRing ring = mBufferRing;
+        if (ring != null && ring.recycle(data)) {
+            return;
+        }
+        if (ring == null || !ring.isAttached()) {
+            camera.setOneShotPreviewCallback(callback);
+        }
+    }
+
+    /**
+     * Called once a preview frame produced a result. Stops further frame delivery until the
+     * preview is shown again and keeps the buffer for the next preview session.
+     */
+    public void finishFrame(byte[] data) {
+        PreviewBufferRing ring = mBufferRing;
+        if (ring != null) {
+            ring.detach();
+            ring.recycle(data);
+        }
+    }
+
     public void safeAutoFocus() {
         try {
             mCameraWrapper.mCamera.autoFocus(autoFocusCB);
@@ -113,6 +186,9 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
                 mPreviewing = false;
                 getHolder().removeCallback(this);
                 mCameraWrapper.mCamera.cancelAutoFocus();
+                if (mBufferRing != null) {
+                    mBufferRing.detach();
+                }
                 mCameraWrapper.mCamera.setOneShotPreviewCallback(null);
                 mCameraWrapper.mCamera.stopPreview();
             } catch(Exception e) {
@@ -122,12 +198,50 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
     }
 
     public void setupCameraParameters() {
-        Camera.Size optimalSize = getOptimalPreviewSize();
         Camera.Parameters parameters = mCameraWrapper.mCamera.getParameters();
-        parameters.setPreviewSize(optimalSize.width, optimalSize.height);
-        mCameraWrapper.mCamera.setParameters(parameters);
+        Point optimalSize = getOptimalPreviewSize(parameters);
+        Camera.Size previewSize = parameters.getPreviewSize();
+        if (previewSize == null || previewSize.width != optimalSize.x || previewSize.height != optimalSize.y) {
+            // Already set when the camera was prewarmed or the preview is restarted
+            parameters.setPreviewSize(optimalSize.x, optimalSize.y);
+            mCameraWrapper.mCamera.setParameters(parameters);
+        }
+        mPreviewBufferSize = optimalSize.x * optimalSize.y
+                * ImageFormat.getBitsPerPixel(parameters.getPreviewFormat()) / 8;
+        updateFrameGeometry(optimalSize.x, optimalSize.y);
+
+        adjustViewSize(optimalSize.x, optimalSize.y);
+    }
+
+    private void updateFrameGeometry(int previewWidth, int previewHeight) {
+        Camera.CameraInfo info = getCameraInfo();
+        int displayOrientation = getDisplayOrientation(info);
+        // Frames are only rotated into display orientation in portrait
+        int rotation = 0;
+        if (DisplayUtils.getScreenOrientation(getContext()) == Configuration.ORIENTATION_PORTRAIT) {
+            rotation = displayOrientation;
+        }
+        boolean mirrored = info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+        mFrameGeometry = new FrameGeometry(previewWidth, previewHeight, displayOrientation, rotation, mirrored);
+    }
 
-        adjustViewSize(optimalSize.width, optimalSize.height);
+    /**
+     * Geometry of the frames delivered to the preview callback, without framing rect. Only
+     * changes when the preview is restarted or the display configuration changes.
+     *
+     * @return frame geometry or null if the preview was never started
+     */
+    public FrameGeometry getFrameGeometry() {
+        return mFrameGeometry;
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        FrameGeometry geometry = mFrameGeometry;
+        if (mCameraWrapper != null && geometry != null) {
+            updateFrameGeometry(geometry.getPreviewWidth(), geometry.getPreviewHeight());
+        }
     }
 
     private void adjustViewSize(int width, int height) {
@@ -193,13 +307,24 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
             return 0;
         }
 
+        return getDisplayOrientation(getCameraInfo());
+    }
+
+    private Camera.CameraInfo getCameraInfo() {
         Camera.CameraInfo info = new Camera.CameraInfo();
-        if(mCameraWrapper.mCameraId == -1) {
+        CameraCapabilities capabilities = CameraCapabilityCache.get(mCameraWrapper.mCameraId);
+        if (capabilities != null) {
+            info.facing = capabilities.getFacing();
+            info.orientation = capabilities.getOrientation();
+        } else if(mCameraWrapper.mCameraId == -1) {
             Camera.getCameraInfo(Camera.CameraInfo.CAMERA_FACING_BACK, info);
         } else {
             Camera.getCameraInfo(mCameraWrapper.mCameraId, info);
         }
+        return info;
+    }
 
+    private int getDisplayOrientation(Camera.CameraInfo info) {
         WindowManager wm = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
         Display display = wm.getDefaultDisplay();
 
@@ -222,12 +347,7 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         return result;
     }
 
-    private Camera.Size getOptimalPreviewSize() {
-        if(mCameraWrapper == null) {
-            return null;
-        }
-
-        List<Camera.Size> sizes = mCameraWrapper.mCamera.getParameters().getSupportedPreviewSizes();
+    private Point getOptimalPreviewSize(Camera.Parameters parameters) {
         int w = getWidth();
         int h = getHeight();
         if (DisplayUtils.getScreenOrientation(getContext()) == Configuration.ORIENTATION_PORTRAIT) {
@@ -235,33 +355,41 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
             h = w;
             w = portraitWidth;
         }
+        List<Point> sizes = CameraCapabilityCache.get(mCameraWrapper.mCameraId, parameters).getPreviewSizes();
+        return getOptimalPreviewSize(sizes, w, h);
+    }
 
+    /**
+     * @param w width of the view in landscape orientation
+     * @param h height of the view in landscape orientation
+     */
+    static Point getOptimalPreviewSize(List<Point> sizes, int w, int h) {
         final double ASPECT_TOLERANCE = 0.1;
         double targetRatio = (double) w / h;
         if (sizes == null) return null;
 
-        Camera.Size optimalSize = null;
+        Point optimalSize = null;
         double minDiff = Double.MAX_VALUE;
 
         int targetHeight = h;
 
         // Try to find an size match aspect ratio and size
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
+        for (Point size : sizes) {
+            double ratio = (double) size.x / size.y;
             if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
+            if (Math.abs(size.y - targetHeight) < minDiff) {
                 optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
+                minDiff = Math.abs(size.y - targetHeight);
             }
         }
 
         // Cannot find the one match the aspect ratio, ignore the requirement
         if (optimalSize == null) {
             minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
+            for (Point size : sizes) {
+                if (Math.abs(size.y - targetHeight) < minDiff) {
                     optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
+                    minDiff = Math.abs(size.y - targetHeight);
                 }
             }
         }
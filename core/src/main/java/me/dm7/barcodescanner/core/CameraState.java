@@ -0,0 +1,17 @@
+package me.dm7.barcodescanner.core;
+
+/**
+ * States of the camera session run by the camera thread.
+ */
+public enum CameraState {
+    /** No camera is open. */
+    IDLE,
+    /** The camera is being opened. */
+    OPENING,
+    /** The camera is open and handed to the view, the preview is not running yet. */
+    OPEN,
+    /** The preview was started. */
+    PREVIEWING,
+    /** The camera is being released. */
+    CLOSING
+}
@@ -0,0 +1,16 @@
+package me.dm7.barcodescanner.core;
+
+/**
+ * Receives the transitions of the camera session, see
+ * {@link BarcodeScannerView#setCameraStateListener(CameraStateListener)}. Called on the camera
+ * thread, implementations must not block.
+ */
+public interface CameraStateListener {
+    /**
+     * @param from          state the session left
+     * @param to            state the session entered
+     * @param elapsedMillis time spent in {@code from}, e.g. the time {@code Camera.open} took when
+     *                      leaving {@link CameraState#OPENING}
+     */
+    void onCameraStateChanged(CameraState from, CameraState to, long elapsedMillis);
+}
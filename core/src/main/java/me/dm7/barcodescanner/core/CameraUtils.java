@@ -27,28 +27,26 @@ public class CameraUtils {
     /** Returns the first camera for a given direction. If a camera does not exist for that direction, -1 is returned **/
     public static int getCameraId(CameraFacing facing) {
         int numberOfCameras = getNumberOfCameras();
-        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
         for (int i = 0; i < numberOfCameras; i++) {
-            Camera.getCameraInfo(i, cameraInfo);
-            if (cameraInfo.facing == facing.ordinal()) {
+            if (CameraCapabilityCache.get(i).getFacing() == facing.ordinal()) {
                 return i;
             }
         }
         return -1;
     }
 
+    /** Answered from the {@link CameraCapabilityCache} once it was filled **/
     public static int getNumberOfCameras() {
-        return Camera.getNumberOfCameras();
+        return CameraCapabilityCache.getNumberOfCameras();
     }
 
     public static int getNumberOfFacingCameras(CameraFacing facing) {
         int numberOfCameras = getNumberOfCameras();
         int numberOfFacingCameras = 0;
-        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
         for (int i = 0; i < numberOfCameras; i++) {
-            Camera.getCameraInfo(i, cameraInfo);
-            if ((cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_BACK && facing == CameraFacing.BACK)
-                    || (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT && facing == CameraFacing.FRONT)) {
+            int cameraFacing = CameraCapabilityCache.get(i).getFacing();
+            if ((cameraFacing == Camera.CameraInfo.CAMERA_FACING_BACK && facing == CameraFacing.BACK)
+                    || (cameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT && facing == CameraFacing.FRONT)) {
                 numberOfFacingCameras++;
             }
         }
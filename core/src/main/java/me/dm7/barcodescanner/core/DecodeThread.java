@@ -0,0 +1,139 @@
+package me.dm7.barcodescanner.core;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Decodes preview frames away from the camera thread so that camera control (opening, releasing,
+ * preview restarts) never waits behind a slow decode.
+ * <p>Only the newest frame is kept while a decode is running. Older pending frames are dropped and
+ * handed back right away, so every decode starts from the most recent frame available.</p>
+ */
+class DecodeThread extends HandlerThread {
+    interface FrameConsumer {
+        void decodeFrame(byte[] data, Camera camera);
+
+        void dropFrame(byte[] data, Camera camera);
+    }
+
+    private final Handler mHandler;
+    private final FrameConsumer mConsumer;
+    private byte[] mPendingData;
+    private Camera mPendingCamera;
+    private boolean mScheduled;
+    private long mDroppedFrames;
+
+    /**
+     * @param previous thread that decoded for the same consumer before and is still shutting
+     *                 down, may be null. No frame is decoded before it has finished.
+     */
+    DecodeThread(FrameConsumer consumer, final DecodeThread previous) {
+        super("DecodeThread");
+        mConsumer = consumer;
+        start();
+        mHandler = new Handler(getLooper());
+        if (previous != null) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        previous.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+    }
+
+    void submit(byte[] data, Camera camera) {
+        byte[] droppedData = null;
+        Camera droppedCamera = null;
+        synchronized (this) {
+            if (mPendingData != null) {
+                droppedData = mPendingData;
+                droppedCamera = mPendingCamera;
+                mDroppedFrames++;
+            }
+            mPendingData = data;
+            mPendingCamera = camera;
+            if (!mScheduled) {
+                mScheduled = true;
+                mHandler.post(mDecodeRunnable);
+            }
+        }
+
+        if (droppedData != null) {
+            mConsumer.dropFrame(droppedData, droppedCamera);
+        }
+    }
+
+    /** Drops the pending frame, if any. A decode that is already running is not interrupted. */
+    void clear() {
+        byte[] droppedData;
+        Camera droppedCamera;
+        synchronized (this) {
+            droppedData = mPendingData;
+            droppedCamera = mPendingCamera;
+            mPendingData = null;
+            mPendingCamera = null;
+        }
+
+        if (droppedData != null) {
+            mConsumer.dropFrame(droppedData, droppedCamera);
+        }
+    }
+
+    /**
+     * Drops the pending frame and runs {@code cleanup} on this thread once a running decode has
+     * finished. Frames submitted afterwards are decoded after the cleanup.
+     */
+    void release(Runnable cleanup) {
+        clear();
+        mHandler.post(cleanup);
+    }
+
+    /**
+     * Drops the pending frame and stops the thread once a running decode has finished.
+     *
+     * @param cleanup run on this thread before it stops, may be null
+     */
+    void shutdown(final Runnable cleanup) {
+        clear();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (cleanup != null) {
+                    cleanup.run();
+                }
+                quit();
+            }
+        });
+    }
+
+    synchronized long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    private final Runnable mDecodeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                byte[] data;
+                Camera camera;
+                synchronized (DecodeThread.this) {
+                    if (mPendingData == null) {
+                        mScheduled = false;
+                        return;
+                    }
+                    data = mPendingData;
+                    camera = mPendingCamera;
+                    mPendingData = null;
+                    mPendingCamera = null;
+                }
+                mConsumer.decodeFrame(data, camera);
+            }
+        }
+    };
+}
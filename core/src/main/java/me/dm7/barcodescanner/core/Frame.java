@@ -0,0 +1,69 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+/**
+ * A single preview frame handed to a {@link FrameDecoder}.
+ * <p>The data is only valid for the duration of {@link FrameDecoder#decode(Frame)}; the buffer is
+ * handed back to the camera afterwards and must not be retained.</p>
+ */
+public final class Frame {
+    private final byte[] mData;
+    private final FrameGeometry mGeometry;
+    private final Rect mRegionOfInterest;
+    private final long mSequence;
+    private final long mTimestamp;
+
+    public Frame(byte[] data, FrameGeometry geometry, long sequence, long timestamp) {
+        this(data, geometry, null, sequence, timestamp);
+    }
+
+    /**
+     * @param regionOfInterest region within the framing rect to search first, in rotated frame
+     *                         coordinates, or null
+     */
+    public Frame(byte[] data, FrameGeometry geometry, Rect regionOfInterest, long sequence, long timestamp) {
+        mData = data;
+        mGeometry = geometry;
+        mRegionOfInterest = regionOfInterest;
+        mSequence = sequence;
+        mTimestamp = timestamp;
+    }
+
+    /** Frame data in sensor orientation, the Y plane coming first */
+    public byte[] getData() {
+        return mData;
+    }
+
+    public FrameGeometry getGeometry() {
+        return mGeometry;
+    }
+
+    /**
+     * Region in rotated frame coordinates where barcodes were found recently, see
+     * {@link RegionTracker}. Decoders should only search this region when it is set.
+     *
+     * @return the region of interest, or null to search the whole framing rect
+     */
+    public Rect getRegionOfInterest() {
+        return mRegionOfInterest;
+    }
+
+    /**
+     * @return the region decoders search: the region of interest if set, else the framing rect
+     * of the geometry. Null if the view finder was not laid out yet.
+     */
+    public Rect getSearchRegion() {
+        return mRegionOfInterest != null ? mRegionOfInterest : mGeometry.getFramingRect();
+    }
+
+    /** Number of the frame within the current camera session, increasing by one per decoded frame */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /** Time the frame was received, in {@link android.os.SystemClock#elapsedRealtime()} millis */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+}
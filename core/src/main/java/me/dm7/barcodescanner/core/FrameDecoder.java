@@ -0,0 +1,45 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+import java.util.List;
+
+/**
+ * Decodes barcodes from preview frames. Implementations are plugged into a
+ * {@link BarcodeScannerView} with
+ * {@link BarcodeScannerView#setFrameDecoder(FrameDecoder, FrameResultCallback)}, which takes care of
+ * frame delivery, threading, duplicate suppression and posting results.
+ * <p>{@link #decode(Frame)} and {@link #release()} are called from the decode thread of the view,
+ * never concurrently. The view keeps its decode thread until it is detached from its window;
+ * a thread started after that only decodes once the previous one has finished.</p>
+ *
+ * @param <T> type of the decoded results
+ */
+public interface FrameDecoder<T> {
+    /**
+     * @return the results found in the frame, an empty list if there are none
+     */
+    List<T> decode(Frame frame);
+
+    /**
+     * @return name of the format of a result, used to suppress duplicate results
+     */
+    String getFormatName(T result);
+
+    /**
+     * @return raw bytes of a result, used to suppress duplicate results
+     */
+    byte[] getRawBytes(T result);
+
+    /**
+     * @return bounding box of a result in rotated frame coordinates, or null if unknown. Used to
+     * track the region of interest, see {@link RegionTracker}.
+     */
+    Rect getBounds(T result, Frame frame);
+
+    /**
+     * Frees resources held for decoding, e.g. native objects. Called when the camera is stopped,
+     * after the last frame was decoded. {@link #decode(Frame)} may be called again afterwards.
+     */
+    void release();
+}
@@ -0,0 +1,22 @@
+package me.dm7.barcodescanner.core;
+
+/**
+ * Cheap check that runs on every frame before it is decoded, so that frames which cannot yield
+ * a barcode do not pay for a full decode. Filters are added with
+ * {@link BarcodeScannerView#addFrameFilter(FrameFilter)} and run in the order they were added;
+ * the first filter rejecting a frame skips it.
+ * <p>Both methods are called on the decode thread.</p>
+ */
+public interface FrameFilter {
+    /**
+     * @return true to decode the frame, false to skip it
+     */
+    boolean accept(Frame frame);
+
+    /**
+     * Called after a frame accepted by all filters was decoded.
+     *
+     * @param found whether any barcode was found, duplicates included
+     */
+    void onFrameDecoded(Frame frame, boolean found);
+}
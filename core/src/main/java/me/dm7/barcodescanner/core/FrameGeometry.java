@@ -0,0 +1,136 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+/**
+ * Immutable description of how preview frames map to what is shown on screen.
+ * <p>It is computed when the camera parameters are set up and only refreshed when the surface or
+ * the display rotation changes, so the per-frame decode path never has to query the camera, the
+ * window manager or the view hierarchy.</p>
+ */
+public final class FrameGeometry {
+    private final int mPreviewWidth;
+    private final int mPreviewHeight;
+    private final int mDisplayOrientation;
+    private final int mRotation;
+    private final boolean mMirrored;
+    private final Rect mFramingRect;
+    private final Rect mFramingRectInSensor;
+
+    /**
+     * @param previewWidth       width of the preview frames in sensor orientation
+     * @param previewHeight      height of the preview frames in sensor orientation
+     * @param displayOrientation orientation the preview is displayed in, see
+     *                           {@link android.hardware.Camera#setDisplayOrientation(int)}
+     * @param rotation           clockwise rotation that brings frame data upright for decoding
+     * @param mirrored           whether the preview is mirrored (front facing camera)
+     */
+    public FrameGeometry(int previewWidth, int previewHeight, int displayOrientation, int rotation, boolean mirrored) {
+        this(previewWidth, previewHeight, displayOrientation, rotation, mirrored, null);
+    }
+
+    private FrameGeometry(int previewWidth, int previewHeight, int displayOrientation, int rotation,
+                          boolean mirrored, Rect framingRect) {
+        mPreviewWidth = previewWidth;
+        mPreviewHeight = previewHeight;
+        mDisplayOrientation = displayOrientation;
+        mRotation = rotation;
+        mMirrored = mirrored;
+        mFramingRect = framingRect;
+        mFramingRectInSensor = framingRect != null ? toSensorRect(framingRect) : null;
+    }
+
+    /**
+     * @param framingRect framing rect in rotated frame coordinates
+     * @return a copy of this geometry with the given framing rect
+     */
+    public FrameGeometry withFramingRect(Rect framingRect) {
+        return new FrameGeometry(mPreviewWidth, mPreviewHeight, mDisplayOrientation, mRotation, mMirrored,
+                framingRect != null ? new Rect(framingRect) : null);
+    }
+
+    /** Width of the preview frames in sensor orientation */
+    public int getPreviewWidth() {
+        return mPreviewWidth;
+    }
+
+    /** Height of the preview frames in sensor orientation */
+    public int getPreviewHeight() {
+        return mPreviewHeight;
+    }
+
+    public int getDisplayOrientation() {
+        return mDisplayOrientation;
+    }
+
+    /** Clockwise rotation in degrees (0, 90, 180 or 270) that brings frame data upright */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public boolean isMirrored() {
+        return mMirrored;
+    }
+
+    /** Width of the preview frames once rotated by {@link #getRotation()} */
+    public int getRotatedWidth() {
+        return mRotation % 180 == 0 ? mPreviewWidth : mPreviewHeight;
+    }
+
+    /** Height of the preview frames once rotated by {@link #getRotation()} */
+    public int getRotatedHeight() {
+        return mRotation % 180 == 0 ? mPreviewHeight : mPreviewWidth;
+    }
+
+    /**
+     * Framing rect in rotated frame coordinates, or null if the view finder was not laid out
+     * yet. The returned rect must not be modified.
+     */
+    public Rect getFramingRect() {
+        return mFramingRect;
+    }
+
+    /**
+     * Framing rect in sensor coordinates, or null if the view finder was not laid out yet.
+     * The returned rect must not be modified.
+     */
+    public Rect getFramingRectInSensor() {
+        return mFramingRectInSensor;
+    }
+
+    /**
+     * Maps a rect in rotated frame coordinates back into sensor coordinates.
+     */
+    public Rect toSensorRect(Rect rect) {
+        int w = mPreviewWidth;
+        int h = mPreviewHeight;
+        switch (mRotation) {
+            case 90:
+                return new Rect(rect.top, h - rect.right, rect.bottom, h - rect.left);
+            case 180:
+                return new Rect(w - rect.right, h - rect.bottom, w - rect.left, h - rect.top);
+            case 270:
+                return new Rect(w - rect.bottom, rect.left, w - rect.top, rect.right);
+            default:
+                return new Rect(rect);
+        }
+    }
+
+    /**
+     * Maps a rect in sensor coordinates into rotated frame coordinates.
+     */
+    public Rect toRotatedRect(Rect rect) {
+        int w = mPreviewWidth;
+        int h = mPreviewHeight;
+        switch (mRotation) {
+            case 90:
+                return new Rect(h - rect.bottom, rect.left, h - rect.top, rect.right);
+            case 180:
+                return new Rect(w - rect.right, h - rect.bottom, w - rect.left, h - rect.top);
+            case 270:
+                return new Rect(rect.top, w - rect.right, rect.bottom, w - rect.left);
+            default:
+                return new Rect(rect);
+        }
+    }
+}
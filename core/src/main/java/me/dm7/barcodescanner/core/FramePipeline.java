@@ -0,0 +1,158 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a {@link FrameDecoder} on the frames of a {@link BarcodeScannerView}: decodes a frame,
+ * suppresses duplicate results, requests the next frame and posts results to the main thread.
+ */
+class FramePipeline<T> {
+    private static final String TAG = "FramePipeline";
+
+    private final BarcodeScannerView mScannerView;
+    private final FrameDecoder<T> mDecoder;
+    private final FrameResultCallback<T> mCallback;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private long mSequence;
+    // Set once a result stopped the preview, until the preview is resumed
+    private volatile boolean mStopped;
+
+    FramePipeline(BarcodeScannerView scannerView, FrameDecoder<T> decoder, FrameResultCallback<T> callback) {
+        mScannerView = scannerView;
+        mDecoder = decoder;
+        mCallback = callback;
+    }
+
+    /** Called when the camera preview is (re)started */
+    void reset() {
+        mStopped = false;
+    }
+
+    /** Runs on the decode thread when the camera is stopped */
+    void release() {
+        mDecoder.release();
+    }
+
+    /** Runs on the decode thread */
+    void process(byte[] data, Camera camera) {
+        if (mStopped || !mCallback.isAcceptingResults()) {
+            mScannerView.finishFrame(data);
+            return;
+        }
+
+        // Every frame has to be handed back, even if a decoder or filter throws, or the camera
+        // runs out of buffers (or one-shot callbacks) and scanning stalls
+        boolean handedBack = false;
+        try {
+            List<T> results = null;
+            FrameGeometry geometry = mScannerView.getFrameGeometry();
+            if (geometry != null) {
+                RegionTracker tracker = mScannerView.getRegionTracker();
+                Rect region = tracker != null ? tracker.nextRegion(geometry) : null;
+                Frame frame = new Frame(data, geometry, region, mSequence++, SystemClock.elapsedRealtime());
+                List<FrameFilter> filters = mScannerView.getFrameFilters();
+                if (!acceptFrame(filters, frame)) {
+                    return;
+                }
+                results = mDecoder.decode(frame);
+                for (FrameFilter filter : filters) {
+                    filter.onFrameDecoded(frame, !results.isEmpty());
+                }
+                if (tracker != null) {
+                    // Duplicates still tell where the barcodes are
+                    tracker.update(getBounds(results, frame));
+                }
+                results = filterDuplicates(results);
+            }
+
+            if (results != null && !results.isEmpty()) {
+                handedBack = true;
+                deliverResults(data, camera, results);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Processing a frame failed", e);
+        } finally {
+            if (!handedBack) {
+                requestNextFrame(data, camera);
+            }
+        }
+    }
+
+    private void requestNextFrame(byte[] data, Camera camera) {
+        try {
+            mScannerView.requestNextFrame(data, camera);
+        } catch (RuntimeException e) {
+            // The camera might already be released
+            Log.e(TAG, e.toString(), e);
+        }
+    }
+
+    private static boolean acceptFrame(List<FrameFilter> filters, Frame frame) {
+        for (FrameFilter filter : filters) {
+            if (!filter.accept(frame)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Rect> getBounds(List<T> results, Frame frame) {
+        List<Rect> bounds = new ArrayList<Rect>(results.size());
+        for (T result : results) {
+            Rect rect = mDecoder.getBounds(result, frame);
+            if (rect != null) {
+                bounds.add(rect);
+            }
+        }
+        return bounds;
+    }
+
+    private List<T> filterDuplicates(List<T> results) {
+        if (results.isEmpty() || mScannerView.getResultDeduplicator() == null) {
+            return results;
+        }
+        List<T> filtered = new ArrayList<T>(results.size());
+        for (T result : results) {
+            if (!mScannerView.isDuplicateResult(mDecoder.getFormatName(result), mDecoder.getRawBytes(result))) {
+                filtered.add(result);
+            }
+        }
+        return filtered;
+    }
+
+    private void deliverResults(byte[] data, Camera camera, final List<T> results) {
+        if (mScannerView.isContinuousScanning()) {
+            // Keep the preview running and stream results to the callback
+            mScannerView.requestNextFrame(data, camera);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCallback.isAcceptingResults()) {
+                        mCallback.onFrameResults(results);
+                    }
+                }
+            });
+            return;
+        }
+
+        // Stopping the preview can take a little long.
+        // So we want to discard subsequent frames until the preview is resumed.
+        mStopped = true;
+        mScannerView.finishFrame(data);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mScannerView.stopCameraPreview();
+                mCallback.onFrameResults(results);
+            }
+        });
+    }
+}
@@ -0,0 +1,172 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Skips frames that are too blurred or badly exposed to decode, e.g. while autofocus is hunting.
+ * <p>A sparse grid of the search region is sampled. Sharpness is the variance of the Laplacian
+ * at the sample points, exposure the mean luma of the samples and the fraction of them that are
+ * clipped to black or white. A frame is decoded only if its sharpness reaches the minimum, its
+ * mean luma lies within the allowed range and not too many samples are clipped.</p>
+ */
+public class FrameQualityFilter implements FrameFilter {
+    public static final float DEFAULT_MIN_SHARPNESS = 40f;
+    public static final float DEFAULT_MIN_MEAN_LUMA = 30f;
+    public static final float DEFAULT_MAX_MEAN_LUMA = 225f;
+    public static final float DEFAULT_MAX_CLIPPED_FRACTION = 0.3f;
+    private static final int CLIP_LOW = 8;
+    private static final int CLIP_HIGH = 247;
+    // Number of sample rows and columns
+    private static final int GRID = 32;
+
+    /**
+     * Receives the scores of every frame checked, on the decode thread.
+     */
+    public interface FrameQualityListener {
+        void onFrameQuality(float sharpness, float meanLuma, float clippedFraction, boolean accepted);
+    }
+
+    private volatile float mMinSharpness = DEFAULT_MIN_SHARPNESS;
+    private volatile float mMinMeanLuma = DEFAULT_MIN_MEAN_LUMA;
+    private volatile float mMaxMeanLuma = DEFAULT_MAX_MEAN_LUMA;
+    private volatile float mMaxClippedFraction = DEFAULT_MAX_CLIPPED_FRACTION;
+    private final List<FrameQualityListener> mListeners = new CopyOnWriteArrayList<FrameQualityListener>();
+
+    private volatile float mSharpness;
+    private volatile float mMeanLuma;
+    private volatile float mClippedFraction;
+    private long mSkippedCount;
+    private long mAcceptedCount;
+
+    public void setMinSharpness(float minSharpness) {
+        mMinSharpness = minSharpness;
+    }
+
+    public float getMinSharpness() {
+        return mMinSharpness;
+    }
+
+    /**
+     * @param minMeanLuma frames with a lower mean luma are considered underexposed
+     * @param maxMeanLuma frames with a higher mean luma are considered overexposed
+     */
+    public void setMeanLumaRange(float minMeanLuma, float maxMeanLuma) {
+        mMinMeanLuma = minMeanLuma;
+        mMaxMeanLuma = maxMeanLuma;
+    }
+
+    public void setMaxClippedFraction(float maxClippedFraction) {
+        mMaxClippedFraction = maxClippedFraction;
+    }
+
+    public void addListener(FrameQualityListener listener) {
+        if (listener != null) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(FrameQualityListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /** Laplacian variance of the last frame checked */
+    public float getSharpness() {
+        return mSharpness;
+    }
+
+    /** Mean luma of the last frame checked */
+    public float getMeanLuma() {
+        return mMeanLuma;
+    }
+
+    /** Fraction of clipped samples in the last frame checked */
+    public float getClippedFraction() {
+        return mClippedFraction;
+    }
+
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Number of frames this filter let through. They may still be skipped by a later filter, so
+     * this is not the number of decoded frames.
+     */
+    public synchronized long getAcceptedCount() {
+        return mAcceptedCount;
+    }
+
+    @Override
+    public boolean accept(Frame frame) {
+        FrameGeometry geometry = frame.getGeometry();
+        int dataWidth = geometry.getPreviewWidth();
+        int dataHeight = geometry.getPreviewHeight();
+        Rect region = frame.getSearchRegion();
+        region = region != null ? geometry.toSensorRect(region) : new Rect(0, 0, dataWidth, dataHeight);
+        // Keep one pixel away from the frame edges for the Laplacian neighbours
+        int left = Math.max(1, region.left);
+        int top = Math.max(1, region.top);
+        int right = Math.min(dataWidth - 1, region.right);
+        int bottom = Math.min(dataHeight - 1, region.bottom);
+        byte[] data = frame.getData();
+
+        int xStep = Math.max(1, (right - left) / GRID);
+        int yStep = Math.max(1, (bottom - top) / GRID);
+        long lumaSum = 0;
+        long laplacianSum = 0;
+        long laplacianSquareSum = 0;
+        int clipped = 0;
+        int samples = 0;
+        for (int y = top; y < bottom; y += yStep) {
+            int offset = y * dataWidth;
+            for (int x = left; x < right; x += xStep) {
+                int i = offset + x;
+                int center = data[i] & 0xFF;
+                int laplacian = 4 * center - (data[i - 1] & 0xFF) - (data[i + 1] & 0xFF)
+                        - (data[i - dataWidth] & 0xFF) - (data[i + dataWidth] & 0xFF);
+                lumaSum += center;
+                laplacianSum += laplacian;
+                laplacianSquareSum += laplacian * laplacian;
+                if (center <= CLIP_LOW || center >= CLIP_HIGH) {
+                    clipped++;
+                }
+                samples++;
+            }
+        }
+
+        float sharpness = 0f;
+        float meanLuma = 0f;
+        float clippedFraction = 0f;
+        if (samples > 0) {
+            float meanLaplacian = (float) laplacianSum / samples;
+            sharpness = (float) laplacianSquareSum / samples - meanLaplacian * meanLaplacian;
+            meanLuma = (float) lumaSum / samples;
+            clippedFraction = (float) clipped / samples;
+        }
+        mSharpness = sharpness;
+        mMeanLuma = meanLuma;
+        mClippedFraction = clippedFraction;
+
+        boolean accepted = sharpness >= mMinSharpness
+                && meanLuma >= mMinMeanLuma && meanLuma <= mMaxMeanLuma
+                && clippedFraction <= mMaxClippedFraction;
+        synchronized (this) {
+            if (accepted) {
+                mAcceptedCount++;
+            } else {
+                mSkippedCount++;
+            }
+        }
+        for (FrameQualityListener listener : mListeners) {
+            listener.onFrameQuality(sharpness, meanLuma, clippedFraction, accepted);
+        }
+        return accepted;
+    }
+
+    @Override
+    public void onFrameDecoded(Frame frame, boolean found) {
+    }
+}
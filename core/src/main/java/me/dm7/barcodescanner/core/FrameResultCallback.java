@@ -0,0 +1,22 @@
+package me.dm7.barcodescanner.core;
+
+import java.util.List;
+
+/**
+ * Receives the results of a {@link FrameDecoder}.
+ *
+ * @param <T> type of the decoded results
+ */
+public interface FrameResultCallback<T> {
+    /**
+     * @return false if nobody is interested in results right now, in which case frames are not
+     * decoded
+     */
+    boolean isAcceptingResults();
+
+    /**
+     * Called on the main thread with the results of a frame, never with an empty list. Unless
+     * continuous scanning is enabled, the camera preview has just been stopped.
+     */
+    void onFrameResults(List<T> results);
+}
@@ -1,17 +0,0 @@
-package me.dm7.barcodescanner.core;
-
-public class NonReentrantLock {
-    private boolean isLocked = false;
-
-    public synchronized void lock() throws InterruptedException {
-        while (isLocked) {
-            wait();
-        }
-        isLocked = true;
-    }
-
-    public synchronized void unlock(){
-        isLocked = false;
-        notifyAll();
-    }
-}
\ No newline at end of file
@@ -0,0 +1,147 @@
+package me.dm7.barcodescanner.core;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+/**
+ * Fixed set of preallocated preview buffers handed to the camera through
+ * {@link Camera#setPreviewCallbackWithBuffer(Camera.PreviewCallback)}.
+ * <p>A buffer is owned either by the camera (queued), by the decoder (in flight) or by nobody
+ * (idle, e.g. while the preview is stopped). Buffers are only handed back to the camera once
+ * they are recycled, so the same array is never queued twice.</p>
+ */
+class PreviewBufferRing implements Camera.PreviewCallback {
+    private static final String TAG = "PreviewBufferRing";
+
+    private static final int IDLE = 0;
+    private static final int QUEUED = 1;
+    private static final int IN_FLIGHT = 2;
+
+    private final int mDepth;
+    private byte[][] mBuffers;
+    private int[] mStates;
+    private Camera mCamera;
+    private Camera.PreviewCallback mTarget;
+
+    PreviewBufferRing(int depth) {
+        mDepth = depth;
+    }
+
+    int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Installs this ring as the camera's preview callback and queues every buffer that is neither
+     * queued nor currently being decoded. Buffers are (re)allocated only when the frame size
+     * changes. Attaching again to the same camera only queues the buffers it is missing.
+     */
+    synchronized void attach(Camera camera, int bufferSize, Camera.PreviewCallback target) {
+        if (mBuffers == null || mBuffers[0].length != bufferSize) {
+            mBuffers = new byte[mDepth][];
+            mStates = new int[mDepth];
+            for (int i = 0; i < mDepth; i++) {
+                mBuffers[i] = new byte[bufferSize];
+            }
+        } else if (mCamera != camera) {
+            // Buffers queued on another camera are gone with it
+            for (int i = 0; i < mDepth; i++) {
+                if (mStates[i] == QUEUED) {
+                    mStates[i] = IDLE;
+                }
+            }
+        }
+        mCamera = camera;
+        mTarget = target;
+        camera.setPreviewCallbackWithBuffer(this);
+        for (int i = 0; i < mDepth; i++) {
+            if (mStates[i] == IDLE) {
+                camera.addCallbackBuffer(mBuffers[i]);
+                mStates[i] = QUEUED;
+            }
+        }
+    }
+
+    /**
+     * Stops handing buffers to the camera. The camera drops its queue when the callback is
+     * cleared, so queued buffers become idle; buffers in flight stay owned by the decoder.
+     */
+    synchronized void detach() {
+        if (mCamera != null) {
+            try {
+                mCamera.setPreviewCallbackWithBuffer(null);
+            } catch (RuntimeException e) {
+                // Camera might already be released
+                Log.e(TAG, e.toString(), e);
+            }
+        }
+        mCamera = null;
+        mTarget = null;
+        if (mStates != null) {
+            for (int i = 0; i < mDepth; i++) {
+                if (mStates[i] == QUEUED) {
+                    mStates[i] = IDLE;
+                }
+            }
+        }
+    }
+
+    synchronized boolean isAttached() {
+        return mCamera != null;
+    }
+
+    /**
+     * Returns a buffer delivered by {@link #onPreviewFrame(byte[], Camera)} to the ring and, if
+     * the ring is attached, hands it straight back to the camera.
+     *
+     * @return false if the buffer does not belong to this ring
+     */
+    synchronized boolean recycle(byte[] data) {
+        int index = indexOf(data);
+        if (index == -1) {
+            return false;
+        }
+        if (mCamera != null) {
+            try {
+                mCamera.addCallbackBuffer(data);
+                mStates[index] = QUEUED;
+                return true;
+            } catch (RuntimeException e) {
+                // Camera might already be released
+                Log.e(TAG, e.toString(), e);
+            }
+        }
+        mStates[index] = IDLE;
+        return true;
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        Camera.PreviewCallback target;
+        synchronized (this) {
+            int index = indexOf(data);
+            if (index != -1) {
+                mStates[index] = IN_FLIGHT;
+            }
+            target = mTarget;
+        }
+
+        if (target != null) {
+            target.onPreviewFrame(data, camera);
+        } else if (data != null) {
+            recycle(data);
+        }
+    }
+
+    private int indexOf(byte[] data) {
+        if (mBuffers == null || data == null) {
+            return -1;
+        }
+        for (int i = 0; i < mDepth; i++) {
+            if (mBuffers[i] == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
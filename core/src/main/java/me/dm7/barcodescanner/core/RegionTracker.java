@@ -0,0 +1,131 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+import java.util.List;
+
+/**
+ * Tracks where barcodes were last found so that the next frame only has to search that region.
+ * <p>After a frame with results, the bounding box of all results is moved by how far it moved
+ * since the previous frame, grown by a margin and clipped to the framing rect. That region is
+ * decoded next. As soon as a tracked region comes up empty, or every {@code refreshInterval}
+ * tracked frames so that new barcodes are noticed, the whole framing rect is decoded again.</p>
+ * <p>All rects are in rotated frame coordinates, see {@link FrameGeometry}.</p>
+ */
+public class RegionTracker {
+    public static final float DEFAULT_MARGIN = 0.5f;
+    public static final int DEFAULT_REFRESH_INTERVAL = 15;
+    // Smallest margin in pixels, 1D barcodes are reported as a line without height
+    private static final int MIN_MARGIN = 24;
+
+    private final float mMargin;
+    private final int mRefreshInterval;
+
+    private FrameGeometry mGeometry;
+    private Rect mLastBounds;
+    private Rect mPreviousBounds;
+    private Rect mRegion;
+    private int mTrackedFrames;
+    private long mTrackedFrameCount;
+    private long mTrackedHitCount;
+    private long mFallbackCount;
+
+    public RegionTracker() {
+        this(DEFAULT_MARGIN, DEFAULT_REFRESH_INTERVAL);
+    }
+
+    /**
+     * @param margin          fraction of the bounding box size added on every side
+     * @param refreshInterval number of tracked frames after which the full framing rect is
+     *                        decoded once
+     */
+    public RegionTracker(float margin, int refreshInterval) {
+        if (margin < 0 || refreshInterval <= 0) {
+            throw new IllegalArgumentException("Margin must not be negative and refreshInterval must be positive");
+        }
+        mMargin = margin;
+        mRefreshInterval = refreshInterval;
+    }
+
+    /**
+     * @return the region to decode in the next frame, or null to decode the whole framing rect
+     */
+    public synchronized Rect nextRegion(FrameGeometry geometry) {
+        if (geometry != mGeometry) {
+            // The framing rect or orientation changed, tracked positions are meaningless
+            reset();
+            mGeometry = geometry;
+        }
+        Rect framingRect = geometry.getFramingRect();
+        if (mLastBounds == null || framingRect == null || mTrackedFrames >= mRefreshInterval) {
+            mTrackedFrames = 0;
+            mRegion = null;
+            return null;
+        }
+
+        Rect region = new Rect(mLastBounds);
+        if (mPreviousBounds != null) {
+            region.offset(mLastBounds.centerX() - mPreviousBounds.centerX(),
+                    mLastBounds.centerY() - mPreviousBounds.centerY());
+        }
+        int dx = Math.max(MIN_MARGIN, (int) (region.width() * mMargin));
+        int dy = Math.max(MIN_MARGIN, (int) (region.height() * mMargin));
+        region.inset(-dx, -dy);
+        if (!region.intersect(framingRect) || region.equals(framingRect)) {
+            mRegion = null;
+            return null;
+        }
+        mTrackedFrames++;
+        mTrackedFrameCount++;
+        mRegion = region;
+        return new Rect(region);
+    }
+
+    /**
+     * Records where barcodes were found in the frame last returned by {@link #nextRegion(FrameGeometry)}.
+     *
+     * @param bounds bounding boxes of the results, empty if nothing was found
+     */
+    public synchronized void update(List<Rect> bounds) {
+        if (bounds.isEmpty()) {
+            if (mRegion != null) {
+                mFallbackCount++;
+            }
+            mLastBounds = null;
+            mPreviousBounds = null;
+            return;
+        }
+        if (mRegion != null) {
+            mTrackedHitCount++;
+        }
+        Rect union = new Rect(bounds.get(0));
+        for (int i = 1; i < bounds.size(); i++) {
+            union.union(bounds.get(i));
+        }
+        mPreviousBounds = mLastBounds;
+        mLastBounds = union;
+    }
+
+    /** Forgets the tracked region. Counters are kept. */
+    public synchronized void reset() {
+        mLastBounds = null;
+        mPreviousBounds = null;
+        mRegion = null;
+        mTrackedFrames = 0;
+    }
+
+    /** Number of frames in which only a tracked region was decoded */
+    public synchronized long getTrackedFrameCount() {
+        return mTrackedFrameCount;
+    }
+
+    /** Number of tracked frames in which a barcode was found */
+    public synchronized long getTrackedHitCount() {
+        return mTrackedHitCount;
+    }
+
+    /** Number of times tracking was given up because the tracked region came up empty */
+    public synchronized long getFallbackCount() {
+        return mFallbackCount;
+    }
+}
@@ -0,0 +1,107 @@
+package me.dm7.barcodescanner.core;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Suppresses results that were already delivered within a time window.
+ * <p>Results are keyed on their format and raw bytes. Each key expires {@code windowMillis} after
+ * it was last delivered, after which the same code is delivered again. At most
+ * {@code maxEntries} keys are kept, the least recently seen ones being evicted first.</p>
+ */
+public class ResultDeduplicator {
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private final long mWindowMillis;
+    private final LinkedHashMap<Key, Long> mDeliveredAt;
+    private long mDeliveredCount;
+    private long mSuppressedCount;
+
+    public ResultDeduplicator(long windowMillis) {
+        this(windowMillis, DEFAULT_MAX_ENTRIES);
+    }
+
+    public ResultDeduplicator(long windowMillis, final int maxEntries) {
+        if (windowMillis < 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("Window must not be negative and maxEntries must be positive");
+        }
+        mWindowMillis = windowMillis;
+        mDeliveredAt = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Records a decoded result.
+     *
+     * @param format name of the barcode format
+     * @param data   raw bytes of the result
+     * @return true if the result should be delivered, false if it is a duplicate
+     */
+    public synchronized boolean accept(String format, byte[] data) {
+        Key key = new Key(format, data);
+        long now = SystemClock.elapsedRealtime();
+        Long deliveredAt = mDeliveredAt.get(key);
+        if (deliveredAt != null && now - deliveredAt < mWindowMillis) {
+            mSuppressedCount++;
+            return false;
+        }
+        mDeliveredAt.put(key, now);
+        mDeliveredCount++;
+        return true;
+    }
+
+    /** Forgets all delivered results so that every code is delivered again. Counters are kept. */
+    public synchronized void clear() {
+        mDeliveredAt.clear();
+    }
+
+    public long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    public synchronized long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    public synchronized long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    private static final class Key {
+        private final String mFormat;
+        private final byte[] mData;
+        private final int mHashCode;
+
+        Key(String format, byte[] data) {
+            mFormat = format;
+            mData = data;
+            mHashCode = 31 * (format != null ? format.hashCode() : 0) + Arrays.hashCode(data);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mHashCode == other.mHashCode
+                    && (mFormat != null ? mFormat.equals(other.mFormat) : other.mFormat == null)
+                    && Arrays.equals(mData, other.mData);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package me.dm7.barcodescanner.core;
+
+import android.graphics.Rect;
+
+/**
+ * Skips frames of a scene that has not changed since the last frame that failed to decode, e.g.
+ * a fixed-mount scanner looking at an empty conveyor.
+ * <p>Every frame gets a signature: the mean luma of each block of a coarse grid over the search
+ * region, estimated from a few samples per block. When a decoded frame comes up empty its
+ * signature becomes the reference. Following frames whose signature differs from the reference by
+ * less than the threshold on average are skipped, but never for longer than the maximum skip
+ * interval, after which a frame is decoded anyway.</p>
+ */
+public class StaticSceneFilter implements FrameFilter {
+    public static final float DEFAULT_THRESHOLD = 3f;
+    public static final long DEFAULT_MAX_SKIP_MILLIS = 1000;
+    // Blocks per side of the signature grid
+    private static final int GRID = 8;
+    // Samples per side within a block
+    private static final int BLOCK_SAMPLES = 4;
+
+    private final float mThreshold;
+    private final long mMaxSkipMillis;
+
+    // Only used on the decode thread
+    private int[] mSignature = new int[GRID * GRID];
+    private int[] mReference = new int[GRID * GRID];
+    private boolean mHasReference;
+    private FrameGeometry mReferenceGeometry;
+    private Rect mReferenceRegion;
+    private long mReferenceTime;
+    private Rect mRegion;
+
+    private long mSkippedCount;
+    private long mAcceptedCount;
+
+    public StaticSceneFilter() {
+        this(DEFAULT_THRESHOLD, DEFAULT_MAX_SKIP_MILLIS);
+    }
+
+    /**
+     * @param threshold     mean absolute difference in block luma below which a scene counts as
+     *                      unchanged
+     * @param maxSkipMillis longest time frames are skipped after the last decoded frame
+     */
+    public StaticSceneFilter(float threshold, long maxSkipMillis) {
+        if (threshold < 0 || maxSkipMillis < 0) {
+            throw new IllegalArgumentException("Threshold and maxSkipMillis must not be negative");
+        }
+        mThreshold = threshold;
+        mMaxSkipMillis = maxSkipMillis;
+    }
+
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Number of frames this filter let through. They may still be skipped by a later filter, so
+     * this is not the number of decoded frames.
+     */
+    public synchronized long getAcceptedCount() {
+        return mAcceptedCount;
+    }
+
+    @Override
+    public boolean accept(Frame frame) {
+        FrameGeometry geometry = frame.getGeometry();
+        Rect region = frame.getSearchRegion();
+        region = region != null ? geometry.toSensorRect(region)
+                : new Rect(0, 0, geometry.getPreviewWidth(), geometry.getPreviewHeight());
+        computeSignature(frame.getData(), geometry.getPreviewWidth(), region, mSignature);
+        mRegion = region;
+
+        boolean skip = mHasReference
+                && geometry == mReferenceGeometry
+                && region.equals(mReferenceRegion)
+                && frame.getTimestamp() - mReferenceTime < mMaxSkipMillis
+                && difference(mSignature, mReference) < mThreshold;
+        synchronized (this) {
+            if (skip) {
+                mSkippedCount++;
+            } else {
+                mAcceptedCount++;
+            }
+        }
+        return !skip;
+    }
+
+    @Override
+    public void onFrameDecoded(Frame frame, boolean found) {
+        if (found) {
+            mHasReference = false;
+            return;
+        }
+        int[] reference = mReference;
+        mReference = mSignature;
+        mSignature = reference;
+        mHasReference = true;
+        mReferenceGeometry = frame.getGeometry();
+        mReferenceRegion = mRegion;
+        mReferenceTime = frame.getTimestamp();
+    }
+
+    private static void computeSignature(byte[] data, int dataWidth, Rect region, int[] signature) {
+        int blockWidth = Math.max(1, region.width() / GRID);
+        int blockHeight = Math.max(1, region.height() / GRID);
+        int xStep = Math.max(1, blockWidth / BLOCK_SAMPLES);
+        int yStep = Math.max(1, blockHeight / BLOCK_SAMPLES);
+        for (int by = 0; by < GRID; by++) {
+            int blockTop = region.top + by * blockHeight;
+            for (int bx = 0; bx < GRID; bx++) {
+                int blockLeft = region.left + bx * blockWidth;
+                int sum = 0;
+                int samples = 0;
+                for (int y = blockTop + yStep / 2; y < blockTop + blockHeight && y < region.bottom; y += yStep) {
+                    int offset = y * dataWidth;
+                    for (int x = blockLeft + xStep / 2; x < blockLeft + blockWidth && x < region.right; x += xStep) {
+                        sum += data[offset + x] & 0xFF;
+                        samples++;
+                    }
+                }
+                signature[by * GRID + bx] = samples > 0 ? sum / samples : 0;
+            }
+        }
+    }
+
+    private static float difference(int[] a, int[] b) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return (float) sum / a.length;
+    }
+}
@@ -1,8 +1,11 @@
 package me.dm7.barcodescanner.zbar;
 
+import android.graphics.Rect;
+
 public class Result {
     private String mContents;
     private BarcodeFormat mBarcodeFormat;
+    private Rect mBounds;
 
     public void setContents(String contents) {
         mContents = contents;
@@ -19,4 +22,16 @@ public class Result {
     public String getContents() {
         return mContents;
     }
+
+    public void setBounds(Rect bounds) {
+        mBounds = bounds;
+    }
+
+    /**
+     * Bounding box of the symbol in the coordinates of the frame rotated into display orientation,
+     * or null if unknown
+     */
+    public Rect getBounds() {
+        return mBounds;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package me.dm7.barcodescanner.zbar;
+
+/**
+ * Adjusts the ZBar scan density, the distance in pixels between scanned lines, so that scanning
+ * a frame takes about a target time.
+ * <p>The average scan time at the current density is tracked against a goal: the target time
+ * while a symbol was found within the last {@value #IDLE_FRAMES} frames, half of it while idle.
+ * Above the goal the density gets sparser, well below it denser. A frame that comes up empty
+ * shortly after a hit makes the density denser too, as the symbol is likely still in view. The
+ * density only gets denser if the expected scan time stays within the goal, so it does not flip
+ * back and forth. Densities always stay within the configured bounds, 1 being the densest.</p>
+ * <p>Only used on the decode thread, apart from the getters.</p>
+ */
+final class ZBarDensityController {
+    static final int DEFAULT_DENSITY = 3;
+    // Frames without a hit after which scanning is considered idle
+    static final int IDLE_FRAMES = 15;
+    // Scans at the current density before the density is changed
+    private static final int MIN_SAMPLES = 3;
+    // Weight of the newest scan time in the average
+    private static final float SMOOTHING = 0.2f;
+
+    private final long mTargetNanos;
+    private final int mDensest;
+    private final int mSparsest;
+    private volatile int mDensity;
+    private volatile float mAverageNanos;
+    private int mSamples;
+    private int mFramesSinceHit = IDLE_FRAMES;
+
+    /**
+     * @param targetMillis target scan time per frame
+     * @param densest      smallest density allowed, at least 1
+     * @param sparsest     largest density allowed
+     */
+    ZBarDensityController(long targetMillis, int densest, int sparsest) {
+        if (targetMillis <= 0 || densest < 1 || sparsest < densest) {
+            throw new IllegalArgumentException("Invalid target time or density bounds");
+        }
+        mTargetNanos = targetMillis * 1000000L;
+        mDensest = densest;
+        mSparsest = sparsest;
+        mDensity = Math.max(densest, Math.min(sparsest, DEFAULT_DENSITY));
+    }
+
+    /** Density to scan the next frame with */
+    int getDensity() {
+        return mDensity;
+    }
+
+    /** Average time spent in {@code scanImage} in milliseconds */
+    float getAverageScanMillis() {
+        return mAverageNanos / 1000000f;
+    }
+
+    /**
+     * Records a scan.
+     *
+     * @param nanos   time spent scanning
+     * @param density density the frame was scanned with
+     * @param found   whether a symbol was found
+     */
+    void onScan(long nanos, int density, boolean found) {
+        boolean recentHit = found || mFramesSinceHit < IDLE_FRAMES;
+        mFramesSinceHit = found ? 0 : Math.min(IDLE_FRAMES, mFramesSinceHit + 1);
+        if (density != mDensity) {
+            // Scanned before the last change, e.g. by a parallel scanner
+            return;
+        }
+        float average = mSamples == 0 ? nanos : mAverageNanos + SMOOTHING * (nanos - mAverageNanos);
+        mAverageNanos = average;
+        if (++mSamples < MIN_SAMPLES) {
+            return;
+        }
+
+        float goal = recentHit ? mTargetNanos : mTargetNanos / 2f;
+        // Scan time grows about inversely with the density
+        boolean denserFits = density > mDensest && average * density / (density - 1) <= goal;
+        int newDensity = density;
+        if (average > goal) {
+            newDensity++;
+        } else if (denserFits && (average < goal / 2 || (recentHit && !found))) {
+            newDensity--;
+        }
+        newDensity = Math.max(mDensest, Math.min(mSparsest, newDensity));
+        if (newDensity != density) {
+            // Start over averaging at the new density, scan time changes with it
+            mSamples = 0;
+            mDensity = newDensity;
+        }
+    }
+}
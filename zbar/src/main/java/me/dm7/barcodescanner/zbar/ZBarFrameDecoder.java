@@ -0,0 +1,171 @@
+package me.dm7.barcodescanner.zbar;
+
+import android.graphics.Rect;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import me.dm7.barcodescanner.core.Frame;
+import me.dm7.barcodescanner.core.FrameDecoder;
+import me.dm7.barcodescanner.core.FrameGeometry;
+
+/**
+ * Decodes the framing rect of preview frames with ZBar. Every non-empty symbol of a frame is
+ * returned, with its bounds in rotated frame coordinates.
+ */
+class ZBarFrameDecoder implements FrameDecoder<Result> {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ZBarSession mSession;
+    private volatile ZBarDensityController mDensityController;
+    private volatile int mScannerCount = 1;
+    // Replaced on the decode thread only
+    private volatile ZBarScannerPool mScannerPool;
+    private Collection<BarcodeFormat> mFormats;
+
+    ZBarFrameDecoder(Collection<BarcodeFormat> formats) {
+        mFormats = formats;
+        mSession = new ZBarSession(formats);
+    }
+
+    synchronized void setFormats(Collection<BarcodeFormat> formats) {
+        mFormats = formats;
+        mSession.setFormats(formats);
+        ZBarScannerPool scannerPool = mScannerPool;
+        if (scannerPool != null) {
+            scannerPool.setFormats(formats);
+        }
+    }
+
+    /**
+     * @param scannerCount number of scanners consecutive frames are scanned with concurrently,
+     *                     1 to scan frames on the decode thread only. Takes effect with the next
+     *                     frame.
+     */
+    void setScannerCount(int scannerCount) {
+        mScannerCount = scannerCount;
+    }
+
+    int getScannerCount() {
+        return mScannerCount;
+    }
+
+    // Runs on the decode thread, so the pool is never replaced while it scans
+    private ZBarScannerPool updateScannerPool() {
+        int scannerCount = mScannerCount;
+        ZBarScannerPool scannerPool = mScannerPool;
+        if (scannerPool == null ? scannerCount <= 1 : scannerPool.getScannerCount() == scannerCount) {
+            return scannerPool;
+        }
+        if (scannerPool != null) {
+            scannerPool.release();
+        }
+        synchronized (this) {
+            mScannerPool = scannerCount > 1 ? new ZBarScannerPool(scannerCount, mFormats) : null;
+            return mScannerPool;
+        }
+    }
+
+    long getNativeAllocationCount() {
+        long count = mSession.getScannerAllocationCount() + mSession.getImageAllocationCount();
+        ZBarScannerPool scannerPool = mScannerPool;
+        if (scannerPool != null) {
+            count += scannerPool.getNativeAllocationCount();
+        }
+        return count;
+    }
+
+    long getLiveNativeObjectCount() {
+        long count = mSession.getLiveNativeObjectCount();
+        ZBarScannerPool scannerPool = mScannerPool;
+        if (scannerPool != null) {
+            count += scannerPool.getLiveNativeObjectCount();
+        }
+        return count;
+    }
+
+    /**
+     * @param densityController controller adapting the scan density, or null for the default
+     *                          density
+     */
+    void setDensityController(ZBarDensityController densityController) {
+        mDensityController = densityController;
+    }
+
+    ZBarDensityController getDensityController() {
+        return mDensityController;
+    }
+
+    @Override
+    public List<Result> decode(Frame frame) {
+        FrameGeometry geometry = frame.getGeometry();
+        byte[] data = frame.getData();
+        int width = geometry.getPreviewWidth();
+        int height = geometry.getPreviewHeight();
+        Rect region = frame.getSearchRegion();
+        // ZBar reads symbols in any orientation, so the frame is scanned as delivered by the
+        // sensor and only the bounds of results are mapped into rotated coordinates
+        Rect sensorRegion = region != null ? geometry.toSensorRect(region) : new Rect(0, 0, width, height);
+
+        ZBarDensityController densityController = mDensityController;
+        int density = densityController != null ? densityController.getDensity() : ZBarDensityController.DEFAULT_DENSITY;
+        List<Result> rawResults = new ArrayList<Result>();
+        ZBarScannerPool scannerPool = updateScannerPool();
+        if (scannerPool != null) {
+            // Results of earlier frames, the same symbol is usually found in several of them
+            Set<String> seen = new HashSet<String>();
+            for (ZBarScannerPool.Scan scan : scannerPool.scan(data, width, height, sensorRegion, density,
+                    geometry, frame.getTimestamp())) {
+                onScan(densityController, scan.getNanos(), scan.getDensity(), scan.getResults());
+                for (Result rawResult : scan.getResults()) {
+                    if (seen.add(rawResult.getBarcodeFormat().getName() + '\n' + rawResult.getContents())) {
+                        rawResults.add(rawResult);
+                    }
+                }
+            }
+            return rawResults;
+        }
+
+        long start = System.nanoTime();
+        mSession.scan(data, width, height, sensorRegion, density, geometry, rawResults);
+        onScan(densityController, System.nanoTime() - start, density, rawResults);
+        return rawResults;
+    }
+
+    private static void onScan(ZBarDensityController densityController, long nanos, int density,
+                               List<Result> rawResults) {
+        if (densityController != null) {
+            densityController.onScan(nanos, density, !rawResults.isEmpty());
+        }
+    }
+
+    @Override
+    public String getFormatName(Result result) {
+        BarcodeFormat format = result.getBarcodeFormat();
+        return format != null ? format.getName() : null;
+    }
+
+    @Override
+    public byte[] getRawBytes(Result result) {
+        String contents = result.getContents();
+        return contents != null ? contents.getBytes(UTF_8) : new byte[0];
+    }
+
+    @Override
+    public void release() {
+        mSession.release();
+        ZBarScannerPool scannerPool = mScannerPool;
+        if (scannerPool != null) {
+            scannerPool.release();
+        }
+    }
+
+    @Override
+    public Rect getBounds(Result result, Frame frame) {
+        return result.getBounds();
+    }
+}
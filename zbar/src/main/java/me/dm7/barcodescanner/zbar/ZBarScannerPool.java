@@ -0,0 +1,270 @@
+package me.dm7.barcodescanner.zbar;
+
+import android.graphics.Rect;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import me.dm7.barcodescanner.core.FrameGeometry;
+
+/**
+ * Scans consecutive frames concurrently, each on one of a fixed set of worker threads.
+ * <p>{@link net.sourceforge.zbar.ImageScanner} is not thread safe, so every worker owns a
+ * {@link ZBarSession} that is only ever used on the worker's own thread. The luma of the scanned
+ * region is copied into a buffer of the worker, so the camera buffer can be handed back right
+ * away. The decode thread only waits when all workers are busy.</p>
+ * <p>Scans are collected in frame order: the results of a frame are returned by the first call
+ * to {@link #scan} after its scan and the scans of all earlier frames finished. Results older
+ * than {@link #MAX_RESULT_AGE_MILLIS} when they are collected are dropped, e.g. scans still
+ * running when a result stopped the preview or decoding was paused.</p>
+ * <p>Apart from {@link #setFormats(Collection)} and the counters, all methods must be called on
+ * the decode thread.</p>
+ */
+final class ZBarScannerPool {
+    static final long MAX_RESULT_AGE_MILLIS = 500;
+
+    /**
+     * Outcome of scanning one frame.
+     */
+    static final class Scan implements Callable<Scan> {
+        private final Worker mWorker;
+        private final int mWidth;
+        private final int mHeight;
+        private final Rect mCrop;
+        private final int mDensity;
+        private final FrameGeometry mGeometry;
+        private final long mTimestamp;
+        private final List<Result> mResults = new ArrayList<Result>();
+        private Future<Scan> mFuture;
+        private long mNanos;
+
+        Scan(Worker worker, int width, int height, Rect crop, int density, FrameGeometry geometry, long timestamp) {
+            mWorker = worker;
+            mWidth = width;
+            mHeight = height;
+            mCrop = crop;
+            mDensity = density;
+            mGeometry = geometry;
+            mTimestamp = timestamp;
+        }
+
+        @Override
+        public Scan call() {
+            long start = System.nanoTime();
+            mWorker.mSession.scan(mWorker.mBuffer, mWidth, mHeight, mCrop, mDensity, mGeometry, mResults);
+            mNanos = System.nanoTime() - start;
+            return this;
+        }
+
+        /** Results with data found in the frame */
+        List<Result> getResults() {
+            return mResults;
+        }
+
+        /** Time spent scanning the frame */
+        long getNanos() {
+            return mNanos;
+        }
+
+        /** Density the frame was scanned with */
+        int getDensity() {
+            return mDensity;
+        }
+    }
+
+    private final Worker[] mWorkers;
+    // Scans in frame order that were not collected yet
+    private final ArrayDeque<Scan> mPending = new ArrayDeque<Scan>();
+
+    ZBarScannerPool(int scannerCount, Collection<BarcodeFormat> formats) {
+        if (scannerCount < 1) {
+            throw new IllegalArgumentException("At least one scanner is needed");
+        }
+        mWorkers = new Worker[scannerCount];
+        for (int i = 0; i < scannerCount; i++) {
+            mWorkers[i] = new Worker(new ZBarSession(formats));
+        }
+    }
+
+    int getScannerCount() {
+        return mWorkers.length;
+    }
+
+    void setFormats(Collection<BarcodeFormat> formats) {
+        for (Worker worker : mWorkers) {
+            worker.mSession.setFormats(formats);
+        }
+    }
+
+    /**
+     * Starts scanning a frame, waiting for the oldest scan if all workers are busy.
+     *
+     * @param data      frame data in sensor orientation, only read during this call
+     * @param crop      region of the frame to scan, in sensor coordinates
+     * @param timestamp time the frame was delivered, see {@link me.dm7.barcodescanner.core.Frame}
+     * @return the scans of earlier frames, possibly this one, that finished since the last call,
+     * in frame order
+     */
+    List<Scan> scan(byte[] data, int width, int height, Rect crop, int density, FrameGeometry geometry,
+                    long timestamp) {
+        List<Scan> scans = new ArrayList<Scan>();
+        collect(scans, timestamp);
+        Worker worker = getIdleWorker();
+        if (worker == null) {
+            // Wait for the oldest frame, its worker is free afterwards
+            collectOne(scans, timestamp);
+            worker = getIdleWorker();
+        }
+
+        int size = width * height;
+        if (worker.mBuffer == null || worker.mBuffer.length < size) {
+            worker.mBuffer = new byte[size];
+        }
+        // Only the luma rows of the region are scanned
+        System.arraycopy(data, crop.top * width, worker.mBuffer, crop.top * width, crop.height() * width);
+        worker.mBusy = true;
+        Scan scan = new Scan(worker, width, height, new Rect(crop), density, geometry, timestamp);
+        scan.mFuture = worker.getExecutor().submit(scan);
+        mPending.addLast(scan);
+
+        collect(scans, timestamp);
+        return scans;
+    }
+
+    private Worker getIdleWorker() {
+        for (Worker worker : mWorkers) {
+            if (!worker.mBusy) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    // Collects the oldest scans as long as they are finished
+    private void collect(List<Scan> scans, long timestamp) {
+        while (!mPending.isEmpty() && mPending.peekFirst().mFuture.isDone()) {
+            collectOne(scans, timestamp);
+        }
+    }
+
+    private void collectOne(List<Scan> scans, long timestamp) {
+        Scan scan = mPending.pollFirst();
+        try {
+            getUninterruptibly(scan.mFuture);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            scan.mWorker.mBusy = false;
+        }
+        if (timestamp - scan.mTimestamp <= MAX_RESULT_AGE_MILLIS) {
+            scans.add(scan);
+        }
+    }
+
+    private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for the running scans, drops their results and destroys the native objects of all
+     * workers on their threads, waiting until they are destroyed. The pool can be used again
+     * afterwards.
+     */
+    void release() {
+        List<Scan> dropped = new ArrayList<Scan>();
+        while (!mPending.isEmpty()) {
+            try {
+                collectOne(dropped, Long.MIN_VALUE);
+            } catch (RuntimeException e) {
+                // The results are dropped anyway
+            }
+        }
+        for (Worker worker : mWorkers) {
+            worker.release();
+        }
+    }
+
+    long getNativeAllocationCount() {
+        long count = 0;
+        for (Worker worker : mWorkers) {
+            count += worker.mSession.getScannerAllocationCount() + worker.mSession.getImageAllocationCount();
+        }
+        return count;
+    }
+
+    long getLiveNativeObjectCount() {
+        long count = 0;
+        for (Worker worker : mWorkers) {
+            count += worker.mSession.getLiveNativeObjectCount();
+        }
+        return count;
+    }
+
+    private static final class Worker {
+        private final ZBarSession mSession;
+        private ExecutorService mExecutor;
+        // Written on the decode thread only while the worker is idle
+        private byte[] mBuffer;
+        private boolean mBusy;
+
+        Worker(ZBarSession session) {
+            mSession = session;
+        }
+
+        ExecutorService getExecutor() {
+            if (mExecutor == null) {
+                mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ZBarScanWorker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return mExecutor;
+        }
+
+        void release() {
+            if (mExecutor == null) {
+                return;
+            }
+            // The session is confined to the worker thread, destroy it there. Waiting for it orders
+            // the destroy before any use of the session on the next worker thread.
+            Future<?> released = mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mSession.release();
+                }
+            });
+            mExecutor.shutdown();
+            mExecutor = null;
+            try {
+                getUninterruptibly(released);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
@@ -1,41 +1,34 @@
 package me.dm7.barcodescanner.zbar;
 
 import android.content.Context;
-import android.content.res.Configuration;
-import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Looper;
-import android.text.TextUtils;
 import android.util.AttributeSet;
-import android.util.Log;
 
-import net.sourceforge.zbar.Config;
-import net.sourceforge.zbar.Image;
-import net.sourceforge.zbar.ImageScanner;
-import net.sourceforge.zbar.Symbol;
-import net.sourceforge.zbar.SymbolSet;
-
-import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.List;
 
 import me.dm7.barcodescanner.core.BarcodeScannerView;
-import me.dm7.barcodescanner.core.DisplayUtils;
+import me.dm7.barcodescanner.core.FrameResultCallback;
 
 public class ZBarScannerView extends BarcodeScannerView {
-    private static final String TAG = "ZBarScannerView";
-
     public interface ResultHandler {
         public void handleResult(Result rawResult);
     }
 
+    /**
+     * Receives every symbol found in a frame, see {@link #setMultiResultHandler(MultiResultHandler)}
+     */
+    public interface MultiResultHandler {
+        public void handleResults(List<Result> rawResults);
+    }
+
     static {
         System.loadLibrary("iconv");
     }
 
-    private ImageScanner mScanner;
+    private ZBarFrameDecoder mFrameDecoder;
     private List<BarcodeFormat> mFormats;
     private ResultHandler mResultHandler;
+    private MultiResultHandler mMultiResultHandler;
 
     public ZBarScannerView(Context context) {
         super(context);
@@ -56,6 +49,14 @@ public class ZBarScannerView extends BarcodeScannerView {
         mResultHandler = resultHandler;
     }
 
+    /**
+     * Sets a handler that receives all symbols found in a frame, together with their bounds.
+     * When set it is used instead of the {@link ResultHandler}.
+     */
+    public void setMultiResultHandler(MultiResultHandler multiResultHandler) {
+        mMultiResultHandler = multiResultHandler;
+    }
+
     public Collection<BarcodeFormat> getFormats() {
         if(mFormats == null) {
             return BarcodeFormat.ALL_FORMATS;
@@ -64,93 +65,107 @@ public class ZBarScannerView extends BarcodeScannerView {
     }
 
     public void setupScanner() {
-        mScanner = new ImageScanner();
-        mScanner.setConfig(0, Config.X_DENSITY, 3);
-        mScanner.setConfig(0, Config.Y_DENSITY, 3);
-
-        mScanner.setConfig(Symbol.NONE, Config.ENABLE, 0);
-        for(BarcodeFormat format : getFormats()) {
-            mScanner.setConfig(format.getId(), Config.ENABLE, 1);
+        if (mFrameDecoder == null) {
+            mFrameDecoder = new ZBarFrameDecoder(getFormats());
+            setFrameDecoder(mFrameDecoder, mResultCallback);
+        } else {
+            mFrameDecoder.setFormats(getFormats());
         }
     }
 
-    @Override
-    public void onPreviewFrame(byte[] data, Camera camera) {
-        if(mResultHandler == null) {
-            return;
+    /**
+     * Adapts the scan density, the distance in pixels between scanned lines, so that scanning a
+     * frame takes about {@code targetMillis}, or half of it while nothing was found for a while.
+     * Frames are scanned denser when there is time left and when a symbol found just before is
+     * missed, within the given bounds. By default a fixed density of 3 is used.
+     *
+     * @param targetMillis target scan time per frame, 0 to go back to the fixed default density
+     * @param densest      smallest density to use, at least 1
+     * @param sparsest     largest density to use
+     */
+    public void setScanTimeBudget(long targetMillis, int densest, int sparsest) {
+        mFrameDecoder.setDensityController(targetMillis > 0
+                ? new ZBarDensityController(targetMillis, densest, sparsest) : null);
+    }
+
+    /**
+     * @return the density frames are currently scanned with
+     */
+    public int getScanDensity() {
+        ZBarDensityController densityController = mFrameDecoder.getDensityController();
+        return densityController != null ? densityController.getDensity() : ZBarDensityController.DEFAULT_DENSITY;
+    }
+
+    /**
+     * @return the average scan time in milliseconds while a scan time budget is set, else 0
+     */
+    public float getAverageScanMillis() {
+        ZBarDensityController densityController = mFrameDecoder.getDensityController();
+        return densityController != null ? densityController.getAverageScanMillis() : 0f;
+    }
+
+    /**
+     * Scans consecutive frames at the same time, each with its own scanner on its own thread, so
+     * that more frames per second are scanned on multicore devices. Every frame is scanned in
+     * full. Results are delivered in frame order, but a frame's results only arrive with one of
+     * the following frames, so frame filters see them with a later frame. Defaults to 1,
+     * scanning frames on the decode thread only.
+     */
+    public void setParallelScannerCount(int scannerCount) {
+        mFrameDecoder.setScannerCount(Math.max(1, scannerCount));
+    }
+
+    public int getParallelScannerCount() {
+        return mFrameDecoder.getScannerCount();
+    }
+
+    /**
+     * @return number of native ZBar scanners and images created so far. The scanner and image
+     * are reused across frames and format changes, so this only grows when the camera is
+     * restarted.
+     */
+    public long getNativeAllocationCount() {
+        return mFrameDecoder.getNativeAllocationCount();
+    }
+
+    /**
+     * @return number of native ZBar objects currently alive, 0 after {@link #stopCamera()}
+     */
+    public long getLiveNativeObjectCount() {
+        return mFrameDecoder.getLiveNativeObjectCount();
+    }
+
+    private final FrameResultCallback<Result> mResultCallback = new FrameResultCallback<Result>() {
+        @Override
+        public boolean isAcceptingResults() {
+            return mResultHandler != null || mMultiResultHandler != null;
         }
 
-        try {
-            Camera.Parameters parameters = camera.getParameters();
-            Camera.Size size = parameters.getPreviewSize();
-            int width = size.width;
-            int height = size.height;
-
-            if(DisplayUtils.getScreenOrientation(getContext()) == Configuration.ORIENTATION_PORTRAIT) {
-                byte[] rotatedData = new byte[data.length];
-                for (int y = 0; y < height; y++) {
-                    for (int x = 0; x < width; x++)
-                        rotatedData[x * height + height - y - 1] = data[x + y * width];
-                }
-                int tmp = width;
-                width = height;
-                height = tmp;
-                data = rotatedData;
+        @Override
+        public void onFrameResults(List<Result> rawResults) {
+            ResultHandler tmpResultHandler = mResultHandler;
+            MultiResultHandler tmpMultiResultHandler = mMultiResultHandler;
+            if (!isContinuousScanning()) {
+                // The preview is stopped until resumeCameraPreview is called
+                mResultHandler = null;
+                mMultiResultHandler = null;
             }
 
-            Image barcode = new Image(width, height, "Y800");
-            barcode.setData(data);
-
-            int result = mScanner.scanImage(barcode);
-
-            if (result != 0) {
-                SymbolSet syms = mScanner.getResults();
-                final Result rawResult = new Result();
-                for (Symbol sym : syms) {
-                    // In order to retreive QR codes containing null bytes we need to
-                    // use getDataBytes() rather than getData() which uses C strings.
-                    // Weirdly ZBar transforms all data to UTF-8, even the data returned
-                    // by getDataBytes() so we have to decode it as UTF-8.
-                    String symData;
-                    if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
-                        symData = new String(sym.getDataBytes(), StandardCharsets.UTF_8);
-                    } else {
-                        symData = sym.getData();
-                    }
-                    if (!TextUtils.isEmpty(symData)) {
-                        rawResult.setContents(symData);
-                        rawResult.setBarcodeFormat(BarcodeFormat.getFormatById(sym.getType()));
-                        break;
-                    }
-                }
-
-                Handler handler = new Handler(Looper.getMainLooper());
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Stopping the preview can take a little long.
-                        // So we want to set result handler to null to discard subsequent calls to
-                        // onPreviewFrame.
-                        ResultHandler tmpResultHandler = mResultHandler;
-                        mResultHandler = null;
-                        
-                        stopCameraPreview();
-                        if (tmpResultHandler != null) {
-                            tmpResultHandler.handleResult(rawResult);
-                        }
-                    }
-                });
-            } else {
-                camera.setOneShotPreviewCallback(this);
+            if (tmpMultiResultHandler != null) {
+                tmpMultiResultHandler.handleResults(rawResults);
+            } else if (tmpResultHandler != null) {
+                tmpResultHandler.handleResult(rawResults.get(0));
             }
-        } catch(RuntimeException e) {
-            // TODO: Terrible hack. It is possible that this method is invoked after camera is released.
-            Log.e(TAG, e.toString(), e);
         }
-    }
+    };
 
     public void resumeCameraPreview(ResultHandler resultHandler) {
         mResultHandler = resultHandler;
         super.resumeCameraPreview();
     }
+
+    public void resumeCameraPreview(MultiResultHandler multiResultHandler) {
+        mMultiResultHandler = multiResultHandler;
+        super.resumeCameraPreview();
+    }
 }
@@ -0,0 +1,177 @@
+package me.dm7.barcodescanner.zbar;
+
+import android.graphics.Rect;
+import android.text.TextUtils;
+
+import net.sourceforge.zbar.Config;
+import net.sourceforge.zbar.Image;
+import net.sourceforge.zbar.ImageScanner;
+import net.sourceforge.zbar.Symbol;
+import net.sourceforge.zbar.SymbolSet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+
+import me.dm7.barcodescanner.core.FrameGeometry;
+
+/**
+ * Owns the native ZBar objects used to decode frames: one {@link ImageScanner} and one
+ * {@link Image} that is reused for every frame.
+ * <p>Formats set from any thread are applied to the existing scanner before the next scan, so it
+ * is never replaced. Native objects are created lazily on the decode thread and destroyed
+ * explicitly by {@link #release()} instead of being left to finalizers.</p>
+ * <p>Apart from {@link #setFormats(Collection)} and the counters, all methods must be called
+ * on the decode thread.</p>
+ */
+final class ZBarSession {
+    private volatile Collection<BarcodeFormat> mFormats;
+    private volatile boolean mFormatsChanged;
+
+    private ImageScanner mScanner;
+    private int mDensity = ZBarDensityController.DEFAULT_DENSITY;
+    private Image mImage;
+    private int mImageWidth;
+    private int mImageHeight;
+
+    private volatile long mScannerAllocations;
+    private volatile long mImageAllocations;
+    private volatile long mDestroyed;
+
+    ZBarSession(Collection<BarcodeFormat> formats) {
+        setFormats(formats);
+    }
+
+    void setFormats(Collection<BarcodeFormat> formats) {
+        mFormats = formats;
+        mFormatsChanged = true;
+    }
+
+    /**
+     * @return the scanner, configured with the latest formats
+     */
+    ImageScanner getScanner() {
+        if (mScanner == null) {
+            mScanner = new ImageScanner();
+            mScannerAllocations++;
+            mScanner.setConfig(0, Config.X_DENSITY, mDensity);
+            mScanner.setConfig(0, Config.Y_DENSITY, mDensity);
+            mFormatsChanged = true;
+        }
+        if (mFormatsChanged) {
+            mFormatsChanged = false;
+            mScanner.setConfig(Symbol.NONE, Config.ENABLE, 0);
+            for(BarcodeFormat format : mFormats) {
+                mScanner.setConfig(format.getId(), Config.ENABLE, 1);
+            }
+        }
+        return mScanner;
+    }
+
+    /**
+     * Sets the distance in pixels between the lines scanned in both directions.
+     */
+    void setDensity(int density) {
+        if (density == mDensity) {
+            return;
+        }
+        mDensity = density;
+        if (mScanner != null) {
+            mScanner.setConfig(0, Config.X_DENSITY, density);
+            mScanner.setConfig(0, Config.Y_DENSITY, density);
+        }
+    }
+
+    /**
+     * @return the Y800 image, sized to the given dimensions. The crop of the previous frame is
+     * kept, callers set their own.
+     */
+    Image getImage(int width, int height) {
+        if (mImage == null) {
+            mImage = new Image(width, height, "Y800");
+            mImageAllocations++;
+        } else if (width != mImageWidth || height != mImageHeight) {
+            mImage.setSize(width, height);
+        }
+        mImageWidth = width;
+        mImageHeight = height;
+        return mImage;
+    }
+
+    /**
+     * Scans a frame and appends a result for every symbol with data.
+     *
+     * @param data     frame data in sensor orientation
+     * @param width    width of the frame
+     * @param height   height of the frame
+     * @param crop     region of the frame to scan, in sensor coordinates
+     * @param density  distance in pixels between scanned lines
+     * @param geometry geometry used to map symbol bounds into rotated frame coordinates
+     * @param results  list the results are added to
+     */
+    void scan(byte[] data, int width, int height, Rect crop, int density, FrameGeometry geometry,
+             List<Result> results) {
+        Image barcode = getImage(width, height);
+        barcode.setData(data);
+        barcode.setCrop(crop.left, crop.top, crop.width(), crop.height());
+        setDensity(density);
+        ImageScanner scanner = getScanner();
+        if (scanner.scanImage(barcode) == 0) {
+            return;
+        }
+
+        SymbolSet syms = scanner.getResults();
+        for (Symbol sym : syms) {
+            // In order to retreive QR codes containing null bytes we need to
+            // use getDataBytes() rather than getData() which uses C strings.
+            // Weirdly ZBar transforms all data to UTF-8, even the data returned
+            // by getDataBytes() so we have to decode it as UTF-8.
+            String symData;
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
+                symData = new String(sym.getDataBytes(), StandardCharsets.UTF_8);
+            } else {
+                symData = sym.getData();
+            }
+            if (!TextUtils.isEmpty(symData)) {
+                Result rawResult = new Result();
+                rawResult.setContents(symData);
+                rawResult.setBarcodeFormat(BarcodeFormat.getFormatById(sym.getType()));
+                int[] bounds = sym.getBounds();
+                rawResult.setBounds(geometry.toRotatedRect(
+                        new Rect(bounds[0], bounds[1], bounds[0] + bounds[2], bounds[1] + bounds[3])));
+                results.add(rawResult);
+            }
+        }
+    }
+
+    /**
+     * Destroys the native objects. They are created again if the session is used afterwards.
+     */
+    void release() {
+        if (mImage != null) {
+            mImage.destroy();
+            mImage = null;
+            mDestroyed++;
+        }
+        if (mScanner != null) {
+            mScanner.destroy();
+            mScanner = null;
+            mDestroyed++;
+        }
+    }
+
+    /** Number of native scanners created so far */
+    long getScannerAllocationCount() {
+        return mScannerAllocations;
+    }
+
+    /** Number of native images created so far */
+    long getImageAllocationCount() {
+        return mImageAllocations;
+    }
+
+    /** Number of native objects currently alive */
+    long getLiveNativeObjectCount() {
+        return mScannerAllocations + mImageAllocations - mDestroyed;
+    }
+}
@@ -0,0 +1,203 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Reader;
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader that learns which formats are scanned most and tries those first.
+ * <p>Every format keeps a score that grows with each frame it is found in and decays with each
+ * frame another format is found in. While adaptive ordering is enabled, frames are only decoded
+ * with the readers of the best scoring formats (the hot set), in order of their score. Every
+ * {@code sweepInterval} frames, and whenever nothing has been learned yet, a full sweep with all
+ * formats is made so that formats outside the hot set are still picked up.</p>
+ * <p>{@link #beginFrame()}, {@link #decode(BinaryBitmap)} and {@link #endFrame(List)} must be
+ * called on the decoding thread, the ranking may be read from any thread.</p>
+ */
+final class AdaptiveFormatReader implements Reader {
+    static final int DEFAULT_HOT_SET_SIZE = 2;
+    static final int DEFAULT_SWEEP_INTERVAL = 10;
+    // Weight kept by every score each time a frame yields results
+    private static final float DECAY = 0.9f;
+    // A format has to score at least this much to be in the hot set
+    private static final float MIN_HOT_SCORE = 0.5f;
+
+    private final Map<DecodeHintType, ?> mHints;
+    private final MultiFormatReader mFullReader;
+    private final Map<BarcodeFormat, MultiFormatReader> mFormatReaders;
+    private final Map<BarcodeFormat, Float> mScores;
+    private final int mHotSetSize;
+    private final int mSweepInterval;
+
+    private volatile boolean mEnabled;
+    // Readers to use for the current frame, null for a full sweep
+    private List<MultiFormatReader> mFrameReaders;
+    private List<BarcodeFormat> mHotFormats = Collections.emptyList();
+    private long mFrameCount;
+
+    /**
+     * @param formats formats to look for
+     * @param hints   hints for all readers or null, {@link DecodeHintType#POSSIBLE_FORMATS} is replaced
+     */
+    AdaptiveFormatReader(Collection<BarcodeFormat> formats, Map<DecodeHintType, ?> hints) {
+        this(formats, hints, DEFAULT_HOT_SET_SIZE, DEFAULT_SWEEP_INTERVAL);
+    }
+
+    AdaptiveFormatReader(Collection<BarcodeFormat> formats, Map<DecodeHintType, ?> hints,
+                         int hotSetSize, int sweepInterval) {
+        if (hotSetSize <= 0 || sweepInterval <= 0) {
+            throw new IllegalArgumentException("Hot set size and sweep interval must be positive");
+        }
+        mHints = hints;
+        mHotSetSize = hotSetSize;
+        mSweepInterval = sweepInterval;
+        mFullReader = createReader(formats);
+        mFormatReaders = new EnumMap<BarcodeFormat, MultiFormatReader>(BarcodeFormat.class);
+        mScores = new EnumMap<BarcodeFormat, Float>(BarcodeFormat.class);
+        for (BarcodeFormat format : formats) {
+            mScores.put(format, 0f);
+        }
+    }
+
+    private MultiFormatReader createReader(Collection<BarcodeFormat> formats) {
+        Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        if (mHints != null) {
+            hints.putAll(mHints);
+        }
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+        MultiFormatReader reader = new MultiFormatReader();
+        reader.setHints(hints);
+        return reader;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Decides whether the next frame gets a full sweep or only the hot set.
+     */
+    void beginFrame() {
+        List<BarcodeFormat> hotFormats;
+        synchronized (this) {
+            hotFormats = mHotFormats;
+        }
+        if (!mEnabled || hotFormats.isEmpty() || mFrameCount % mSweepInterval == 0) {
+            mFrameReaders = null;
+        } else {
+            List<MultiFormatReader> readers = new ArrayList<MultiFormatReader>(hotFormats.size());
+            for (BarcodeFormat format : hotFormats) {
+                MultiFormatReader reader = mFormatReaders.get(format);
+                if (reader == null) {
+                    reader = createReader(Collections.singletonList(format));
+                    mFormatReaders.put(format, reader);
+                }
+                readers.add(reader);
+            }
+            mFrameReaders = readers;
+        }
+        mFrameCount++;
+    }
+
+    /**
+     * Learns from the results of the frame started by the last {@link #beginFrame()}.
+     */
+    synchronized void endFrame(List<Result> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<BarcodeFormat, Float> entry : mScores.entrySet()) {
+            entry.setValue(entry.getValue() * DECAY);
+        }
+        for (Result result : results) {
+            Float score = mScores.get(result.getBarcodeFormat());
+            if (score != null) {
+                mScores.put(result.getBarcodeFormat(), score + 1f);
+            }
+        }
+
+        List<BarcodeFormat> ranking = getFormatRanking();
+        List<BarcodeFormat> hotFormats = new ArrayList<BarcodeFormat>(mHotSetSize);
+        for (BarcodeFormat format : ranking) {
+            if (hotFormats.size() == mHotSetSize || mScores.get(format) < MIN_HOT_SCORE) {
+                break;
+            }
+            hotFormats.add(format);
+        }
+        mHotFormats = Collections.unmodifiableList(hotFormats);
+    }
+
+    /**
+     * @return all formats, best scoring first
+     */
+    synchronized List<BarcodeFormat> getFormatRanking() {
+        List<BarcodeFormat> ranking = new ArrayList<BarcodeFormat>(mScores.keySet());
+        Collections.sort(ranking, new Comparator<BarcodeFormat>() {
+            @Override
+            public int compare(BarcodeFormat lhs, BarcodeFormat rhs) {
+                return Float.compare(mScores.get(rhs), mScores.get(lhs));
+            }
+        });
+        return ranking;
+    }
+
+    /**
+     * @return current score of a format, 0 for formats this reader does not decode
+     */
+    synchronized float getScore(BarcodeFormat format) {
+        Float score = mScores.get(format);
+        return score != null ? score : 0f;
+    }
+
+    /**
+     * @return formats tried on frames that are not a full sweep, best scoring first
+     */
+    synchronized List<BarcodeFormat> getHotFormats() {
+        return mHotFormats;
+    }
+
+    @Override
+    public Result decode(BinaryBitmap image) throws NotFoundException {
+        List<MultiFormatReader> readers = mFrameReaders;
+        if (readers == null) {
+            return mFullReader.decodeWithState(image);
+        }
+        for (MultiFormatReader reader : readers) {
+            try {
+                return reader.decodeWithState(image);
+            } catch (NotFoundException nfe) {
+                // try the next format
+            }
+        }
+        throw NotFoundException.getNotFoundInstance();
+    }
+
+    @Override
+    public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints) throws NotFoundException {
+        return decode(image);
+    }
+
+    @Override
+    public void reset() {
+        mFullReader.reset();
+        for (MultiFormatReader reader : mFormatReaders.values()) {
+            reader.reset();
+        }
+    }
+}
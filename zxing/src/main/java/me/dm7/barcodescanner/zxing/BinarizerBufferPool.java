@@ -0,0 +1,52 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Buffers needed to binarize a frame, kept from one frame to the next.
+ * <p>Buffers are only reallocated when they are too small, or for the bit matrix when its size
+ * changes, so allocation stays flat once the first frame has been decoded. The pool is confined
+ * to the decoding thread, only the allocation count may be read from other threads. A handed out
+ * buffer is only valid until the same buffer is requested again.</p>
+ */
+final class BinarizerBufferPool {
+    private byte[] mLuminances;
+    private int[][] mBlackPoints;
+    private BitMatrix mMatrix;
+    private volatile long mAllocationCount;
+
+    /** Luminance buffer of at least {@code width * height} bytes */
+    byte[] getLuminances(int width, int height) {
+        int size = width * height;
+        if (mLuminances == null || mLuminances.length < size) {
+            mLuminances = new byte[size];
+            mAllocationCount++;
+        }
+        return mLuminances;
+    }
+
+    /** Block black points of at least {@code subHeight} rows of {@code subWidth} entries */
+    int[][] getBlackPoints(int subWidth, int subHeight) {
+        if (mBlackPoints == null || mBlackPoints.length < subHeight || mBlackPoints[0].length < subWidth) {
+            mBlackPoints = new int[subHeight][subWidth];
+            mAllocationCount++;
+        }
+        return mBlackPoints;
+    }
+
+    /** Cleared bit matrix of the given size */
+    BitMatrix getBitMatrix(int width, int height) {
+        if (mMatrix == null || mMatrix.getWidth() != width || mMatrix.getHeight() != height) {
+            mMatrix = new BitMatrix(width, height);
+            mAllocationCount++;
+        } else {
+            mMatrix.clear();
+        }
+        return mMatrix;
+    }
+
+    /** Number of buffers allocated since the pool was created */
+    long getAllocationCount() {
+        return mAllocationCount;
+    }
+}
@@ -0,0 +1,89 @@
+package me.dm7.barcodescanner.zxing;
+
+/**
+ * Hit rate and latency of the frames decoded with one {@link BinarizerStrategy}, or of the passes
+ * made with one {@link BinarizerType}.
+ * <p>A frame counts as a hit when at least one barcode was found in it. The latency of a strategy
+ * covers binarization and decoding, including the fallback pass of
+ * {@link BinarizerStrategy#GLOBAL_FIRST}. A binarizer only accounts for its own passes, so a
+ * frame escalated by {@link BinarizerStrategy#GLOBAL_FIRST} counts as a global histogram miss and
+ * a hybrid pass. With parallel decoding every format group makes its own pass.</p>
+ */
+public final class BinarizerStats {
+    private final BinarizerStrategy mStrategy;
+    private final BinarizerType mBinarizer;
+    private long mFrameCount;
+    private long mHitCount;
+    private long mEscalationCount;
+    private long mTotalNanos;
+
+    BinarizerStats(BinarizerStrategy strategy) {
+        mStrategy = strategy;
+        mBinarizer = null;
+    }
+
+    BinarizerStats(BinarizerType binarizer) {
+        mStrategy = null;
+        mBinarizer = binarizer;
+    }
+
+    synchronized void record(boolean hit, boolean escalated, long nanos) {
+        mFrameCount++;
+        if (hit) {
+            mHitCount++;
+        }
+        if (escalated) {
+            mEscalationCount++;
+        }
+        mTotalNanos += nanos;
+    }
+
+    /** Strategy these stats are recorded for, null if they are recorded for a binarizer */
+    public BinarizerStrategy getStrategy() {
+        return mStrategy;
+    }
+
+    /** Binarizer these stats are recorded for, null if they are recorded for a strategy */
+    public BinarizerType getBinarizer() {
+        return mBinarizer;
+    }
+
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Number of frames that needed the hybrid binarizer after the global one found nothing, always
+     * 0 for the stats of a binarizer
+     */
+    public synchronized long getEscalationCount() {
+        return mEscalationCount;
+    }
+
+    /** Fraction of frames in which a barcode was found, 0 if no frame was decoded yet */
+    public synchronized float getHitRate() {
+        return mFrameCount == 0 ? 0f : (float) mHitCount / mFrameCount;
+    }
+
+    /** Average time spent binarizing and decoding a frame in milliseconds */
+    public synchronized float getAverageDecodeMillis() {
+        return mFrameCount == 0 ? 0f : mTotalNanos / 1000000f / mFrameCount;
+    }
+
+    public synchronized void reset() {
+        mFrameCount = 0;
+        mHitCount = 0;
+        mEscalationCount = 0;
+        mTotalNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return (mStrategy != null ? mStrategy : mBinarizer) + ": " + mHitCount + "/" + mFrameCount + " frames, "
+                + mEscalationCount + " escalated, " + getAverageDecodeMillis() + " ms/frame";
+    }
+}
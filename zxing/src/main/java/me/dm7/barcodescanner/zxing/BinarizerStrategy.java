@@ -0,0 +1,16 @@
+package me.dm7.barcodescanner.zxing;
+
+/**
+ * Decides which binarizer turns the luminance of a frame into black and white pixels.
+ * <p>{@link com.google.zxing.common.GlobalHistogramBinarizer} is much cheaper and decodes clean
+ * 1D barcodes just as well, {@link com.google.zxing.common.HybridBinarizer} copes with uneven
+ * lighting and is needed for most 2D barcodes.</p>
+ */
+public enum BinarizerStrategy {
+    /** Always use the hybrid binarizer. This is the default. */
+    HYBRID,
+    /** Try the global histogram binarizer first and fall back to the hybrid one on the same frame */
+    GLOBAL_FIRST,
+    /** Use the global histogram and the hybrid binarizer on alternating frames */
+    ALTERNATE
+}
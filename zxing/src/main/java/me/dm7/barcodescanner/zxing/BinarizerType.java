@@ -0,0 +1,11 @@
+package me.dm7.barcodescanner.zxing;
+
+/**
+ * A binarizer a frame can be decoded with, see {@link BinarizerStrategy} for when each is used.
+ */
+public enum BinarizerType {
+    /** {@link com.google.zxing.common.GlobalHistogramBinarizer} */
+    GLOBAL_HISTOGRAM,
+    /** {@link com.google.zxing.common.HybridBinarizer} */
+    HYBRID
+}
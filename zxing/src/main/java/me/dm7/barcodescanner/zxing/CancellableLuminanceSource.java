@@ -0,0 +1,52 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.LuminanceSource;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wraps a luminance source so that a decode attempt reading from it can be abandoned.
+ * <p>ZXing readers cannot be interrupted, but 1D readers fetch every row they scan from the
+ * luminance source and 2D readers fetch the matrix before detection. Once the shared flag is set,
+ * those calls throw a {@link CancellationException} and the reader gives up. A 2D reader that
+ * already has the matrix is not stopped.</p>
+ */
+final class CancellableLuminanceSource extends LuminanceSource {
+    private final LuminanceSource mDelegate;
+    private final AtomicBoolean mCancelled;
+
+    CancellableLuminanceSource(LuminanceSource delegate, AtomicBoolean cancelled) {
+        super(delegate.getWidth(), delegate.getHeight());
+        mDelegate = delegate;
+        mCancelled = cancelled;
+    }
+
+    private void checkCancelled() {
+        if (mCancelled.get()) {
+            throw new CancellationException();
+        }
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        checkCancelled();
+        return mDelegate.getRow(y, row);
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        checkCancelled();
+        return mDelegate.getMatrix();
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return mDelegate.isCropSupported();
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new CancellableLuminanceSource(mDelegate.crop(left, top, width, height), mCancelled);
+    }
+}
@@ -0,0 +1,67 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.DecodeHintType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of decode hints, optionally applied to the inverted image, that forms one rung of a
+ * {@link DecodeProfileLadder}. {@link DecodeHintType#POSSIBLE_FORMATS} is ignored, the formats
+ * set on the scanner view are used instead.
+ */
+public final class DecodeProfile {
+    private final String mName;
+    private final Map<DecodeHintType, Object> mHints;
+    private final boolean mInverted;
+
+    /**
+     * @param name     name of the profile, for logging and statistics
+     * @param hints    hints passed to the readers, may be null
+     * @param inverted whether to decode the inverted image, for light codes on a dark background
+     */
+    public DecodeProfile(String name, Map<DecodeHintType, ?> hints, boolean inverted) {
+        mName = name;
+        Map<DecodeHintType, Object> copy = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        if (hints != null) {
+            copy.putAll(hints);
+        }
+        copy.remove(DecodeHintType.POSSIBLE_FORMATS);
+        mHints = Collections.unmodifiableMap(copy);
+        mInverted = inverted;
+    }
+
+    /**
+     * @return a ladder of three profiles: no hints, {@link DecodeHintType#TRY_HARDER} and
+     * {@link DecodeHintType#TRY_HARDER} on the inverted image
+     */
+    public static List<DecodeProfile> defaultProfiles() {
+        Map<DecodeHintType, Object> tryHarder = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        tryHarder.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        List<DecodeProfile> profiles = new ArrayList<DecodeProfile>(3);
+        profiles.add(new DecodeProfile("fast", null, false));
+        profiles.add(new DecodeProfile("try harder", tryHarder, false));
+        profiles.add(new DecodeProfile("inverted", tryHarder, true));
+        return profiles;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Map<DecodeHintType, Object> getHints() {
+        return mHints;
+    }
+
+    public boolean isInverted() {
+        return mInverted;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
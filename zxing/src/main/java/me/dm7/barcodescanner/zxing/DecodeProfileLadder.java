@@ -0,0 +1,84 @@
+package me.dm7.barcodescanner.zxing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Escalates through decode profiles while frames keep failing to decode.
+ * <p>Decoding starts on the first profile. After {@code missesPerRung} consecutive frames without
+ * a result the next profile is used, and after the last one the ladder starts over at the first.
+ * A result resets the ladder to the first profile, so the cheap profile is used whenever codes
+ * read easily while hard codes still get the expensive ones.</p>
+ */
+public final class DecodeProfileLadder {
+    private final List<DecodeProfile> mProfiles;
+    private final int mMissesPerRung;
+    private final long[] mFrameCounts;
+    private final long[] mHitCounts;
+    private int mRung;
+    private int mMisses;
+
+    /**
+     * @param profiles      profiles from cheapest to most expensive
+     * @param missesPerRung consecutive misses after which the next profile is used
+     */
+    public DecodeProfileLadder(List<DecodeProfile> profiles, int missesPerRung) {
+        if (profiles == null || profiles.isEmpty() || missesPerRung <= 0) {
+            throw new IllegalArgumentException("Profiles must not be empty and missesPerRung must be positive");
+        }
+        mProfiles = Collections.unmodifiableList(new ArrayList<DecodeProfile>(profiles));
+        mMissesPerRung = missesPerRung;
+        mFrameCounts = new long[profiles.size()];
+        mHitCounts = new long[profiles.size()];
+    }
+
+    public List<DecodeProfile> getProfiles() {
+        return mProfiles;
+    }
+
+    public int getMissesPerRung() {
+        return mMissesPerRung;
+    }
+
+    /** Profile to decode the next frame with */
+    public synchronized DecodeProfile getCurrentProfile() {
+        return mProfiles.get(mRung);
+    }
+
+    /** Index of the current profile */
+    public synchronized int getCurrentRung() {
+        return mRung;
+    }
+
+    /**
+     * Records the outcome of a frame decoded with {@link #getCurrentProfile()}.
+     */
+    public synchronized void onFrameDecoded(boolean found) {
+        mFrameCounts[mRung]++;
+        if (found) {
+            mHitCounts[mRung]++;
+            mRung = 0;
+            mMisses = 0;
+        } else if (++mMisses >= mMissesPerRung) {
+            mRung = (mRung + 1) % mProfiles.size();
+            mMisses = 0;
+        }
+    }
+
+    /** Goes back to the first profile. Counters are kept. */
+    public synchronized void reset() {
+        mRung = 0;
+        mMisses = 0;
+    }
+
+    /** Number of frames decoded with the profile at the given index */
+    public synchronized long getFrameCount(int rung) {
+        return mFrameCounts[rung];
+    }
+
+    /** Number of frames with results decoded with the profile at the given index */
+    public synchronized long getHitCount(int rung) {
+        return mHitCounts[rung];
+    }
+}
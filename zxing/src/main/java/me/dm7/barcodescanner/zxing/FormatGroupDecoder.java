@@ -0,0 +1,170 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.multi.MultipleBarcodeReader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Readers and binarization buffers for a group of formats.
+ * <p>An instance is confined to one thread at a time, frames are decoded one after the other.</p>
+ */
+final class FormatGroupDecoder {
+    private final Collection<BarcodeFormat> mFormats;
+    private final Readers mBaseReaders;
+    // Readers set up with the hints of each decode profile, dropped with the profile
+    private final Map<DecodeProfile, Readers> mProfileReaders = new WeakHashMap<DecodeProfile, Readers>();
+    private final BinarizerBufferPool mBufferPool = new BinarizerBufferPool();
+    private final Map<BinarizerType, BinarizerStats> mBinarizerStats;
+    private volatile boolean mAdaptiveFormatOrdering;
+    private boolean mEscalated;
+
+    /**
+     * @param binarizerStats stats every binarization pass is recorded in, by binarizer
+     */
+    FormatGroupDecoder(Collection<BarcodeFormat> formats, boolean adaptiveFormatOrdering,
+                       Map<BinarizerType, BinarizerStats> binarizerStats) {
+        mFormats = formats;
+        mBinarizerStats = binarizerStats;
+        mAdaptiveFormatOrdering = adaptiveFormatOrdering;
+        mBaseReaders = new Readers(formats, null, adaptiveFormatOrdering);
+    }
+
+    Collection<BarcodeFormat> getFormats() {
+        return mFormats;
+    }
+
+    /**
+     * @return the reader used without a decode profile, which also holds the format ranking
+     */
+    AdaptiveFormatReader getReader() {
+        return mBaseReaders.mReader;
+    }
+
+    synchronized void setAdaptiveFormatOrdering(boolean adaptiveFormatOrdering) {
+        mAdaptiveFormatOrdering = adaptiveFormatOrdering;
+        mBaseReaders.mReader.setEnabled(adaptiveFormatOrdering);
+        for (Readers readers : mProfileReaders.values()) {
+            readers.mReader.setEnabled(adaptiveFormatOrdering);
+        }
+    }
+
+    private synchronized Readers getReaders(DecodeProfile profile) {
+        if (profile == null) {
+            return mBaseReaders;
+        }
+        Readers readers = mProfileReaders.get(profile);
+        if (readers == null) {
+            readers = new Readers(mFormats, profile.getHints(), mAdaptiveFormatOrdering);
+            mProfileReaders.put(profile, readers);
+        }
+        return readers;
+    }
+
+    BinarizerBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * Decodes one frame.
+     *
+     * @param source          luminance of the frame
+     * @param profile         decode profile to use, or null for the default hints
+     * @param strategy        binarizer strategy to use
+     * @param globalFrame     whether this is a global histogram frame for
+     *                        {@link BinarizerStrategy#ALTERNATE}
+     * @param multipleResults whether to look for all barcodes instead of the first one
+     */
+    List<Result> decode(LuminanceSource source, DecodeProfile profile, BinarizerStrategy strategy,
+                        boolean globalFrame, boolean multipleResults) {
+        Readers readers = getReaders(profile);
+        if (profile != null && profile.isInverted()) {
+            source = new PooledInvertedLuminanceSource(source, mBufferPool);
+        }
+        readers.mReader.beginFrame();
+        mEscalated = false;
+        List<Result> results;
+        switch (strategy) {
+            case GLOBAL_FIRST:
+                results = decode(readers, source, BinarizerType.GLOBAL_HISTOGRAM, multipleResults);
+                if (results.isEmpty()) {
+                    mEscalated = true;
+                    results = decode(readers, source, BinarizerType.HYBRID, multipleResults);
+                }
+                break;
+            case ALTERNATE:
+                results = decode(readers, source, globalFrame ? BinarizerType.GLOBAL_HISTOGRAM : BinarizerType.HYBRID,
+                        multipleResults);
+                break;
+            default:
+                results = decode(readers, source, BinarizerType.HYBRID, multipleResults);
+                break;
+        }
+        readers.mReader.endFrame(results);
+        return results;
+    }
+
+    /**
+     * @return whether the last frame fell back to the hybrid binarizer
+     */
+    boolean wasEscalated() {
+        return mEscalated;
+    }
+
+    // Makes one binarization pass and records it in the stats of the binarizer
+    private List<Result> decode(Readers readers, LuminanceSource source, BinarizerType binarizer,
+                                boolean multipleResults) {
+        long start = System.nanoTime();
+        List<Result> results = decode(readers, binarizer == BinarizerType.GLOBAL_HISTOGRAM
+                ? new GlobalHistogramBinarizer(source)
+                : new PooledHybridBinarizer(source, mBufferPool), multipleResults);
+        mBinarizerStats.get(binarizer).record(!results.isEmpty(), false, System.nanoTime() - start);
+        return results;
+    }
+
+    private static List<Result> decode(Readers readers, Binarizer binarizer, boolean multipleResults) {
+        BinaryBitmap bitmap = new BinaryBitmap(binarizer);
+        try {
+            if (multipleResults) {
+                Result[] results = readers.mMultipleBarcodeReader.decodeMultiple(bitmap);
+                List<Result> rawResults = new ArrayList<Result>(results.length);
+                Collections.addAll(rawResults, results);
+                return rawResults;
+            }
+            return Collections.singletonList(readers.mReader.decode(bitmap));
+        } catch (ReaderException re) {
+            // continue
+        } catch (NullPointerException npe) {
+            // This is terrible
+        } catch (ArrayIndexOutOfBoundsException aoe) {
+
+        } finally {
+            readers.mReader.reset();
+        }
+        return Collections.emptyList();
+    }
+
+    private static final class Readers {
+        private final AdaptiveFormatReader mReader;
+        private final MultipleBarcodeReader mMultipleBarcodeReader;
+
+        Readers(Collection<BarcodeFormat> formats, Map<DecodeHintType, ?> hints, boolean adaptiveFormatOrdering) {
+            mReader = new AdaptiveFormatReader(formats, hints);
+            mReader.setEnabled(adaptiveFormatOrdering);
+            mMultipleBarcodeReader = new GenericMultipleBarcodeReader(mReader);
+        }
+    }
+}
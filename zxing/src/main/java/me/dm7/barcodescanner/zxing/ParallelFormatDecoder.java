@@ -0,0 +1,248 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes a frame with several format groups at once, each on its own worker thread.
+ * <p>The 1D formats form one group and every 2D format gets a group of its own. All groups read
+ * the same copy of the frame's luminance. Unless all barcodes are wanted, the first group to find
+ * one cancels the others and the frame is done.</p>
+ * <p>Cancelling is cooperative: a group only stops at its next luminance access. 1D readers
+ * fetch every row, so they stop quickly. 2D readers fetch the matrix once before detection and
+ * then run to completion, so a cancelled QR, Data Matrix or PDF417 group can keep running well
+ * into the next frames. The next frame is not held up for it: groups still running are skipped
+ * and their late results dropped, so a slow 2D reader only decodes every few frames while
+ * another group is finding barcodes. A frame without any result still takes as long as its
+ * slowest group.</p>
+ * <p>{@link #decode(LuminanceSource, DecodeProfile, BinarizerStrategy, boolean, boolean)} must only be called
+ * from one thread at a time. If the decoder was shut down, the groups decode on that thread.</p>
+ */
+final class ParallelFormatDecoder {
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private final List<FormatGroupDecoder> mGroups;
+    private final ThreadPoolExecutor mExecutor;
+    // Last task of every group, groups with a running task are skipped
+    private final Future<?>[] mRunning;
+    // Luminance copies, one is in use as long as a group reads from it
+    private final List<SharedLuminances> mLuminances = new ArrayList<SharedLuminances>();
+    private volatile long mAllocationCount;
+    private boolean mEscalated;
+
+    ParallelFormatDecoder(Collection<BarcodeFormat> formats, boolean adaptiveFormatOrdering,
+                          Map<BinarizerType, BinarizerStats> binarizerStats) {
+        List<FormatGroupDecoder> groups = new ArrayList<FormatGroupDecoder>();
+        for (Collection<BarcodeFormat> group : groupFormats(formats)) {
+            groups.add(new FormatGroupDecoder(group, adaptiveFormatOrdering, binarizerStats));
+        }
+        mGroups = Collections.unmodifiableList(groups);
+        mRunning = new Future<?>[mGroups.size()];
+
+        // Idle workers time out, so a decoder that is no longer used does not hold on to threads
+        mExecutor = new ThreadPoolExecutor(mGroups.size(), mGroups.size(), KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ZXingDecodeWorker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Splits formats into one group with all 1D formats and one group per 2D format.
+     */
+    static List<Collection<BarcodeFormat>> groupFormats(Collection<BarcodeFormat> formats) {
+        List<Collection<BarcodeFormat>> groups = new ArrayList<Collection<BarcodeFormat>>();
+        List<BarcodeFormat> oneDFormats = new ArrayList<BarcodeFormat>();
+        for (BarcodeFormat format : formats) {
+            switch (format) {
+                case QR_CODE:
+                case DATA_MATRIX:
+                case PDF_417:
+                case AZTEC:
+                case MAXICODE:
+                    groups.add(Collections.singletonList(format));
+                    break;
+                default:
+                    oneDFormats.add(format);
+                    break;
+            }
+        }
+        if (!oneDFormats.isEmpty()) {
+            groups.add(0, oneDFormats);
+        }
+        return groups;
+    }
+
+    List<FormatGroupDecoder> getGroups() {
+        return mGroups;
+    }
+
+    /**
+     * @return whether a group fell back to the hybrid binarizer on the last frame
+     */
+    boolean wasEscalated() {
+        return mEscalated;
+    }
+
+    long getBufferAllocationCount() {
+        long count = mAllocationCount;
+        for (FormatGroupDecoder group : mGroups) {
+            count += group.getBufferPool().getAllocationCount();
+        }
+        return count;
+    }
+
+    List<Result> decode(LuminanceSource source, final DecodeProfile profile, final BinarizerStrategy strategy,
+                        final boolean globalFrame, final boolean multipleResults) {
+        mEscalated = false;
+        if (mGroups.size() == 1) {
+            FormatGroupDecoder group = mGroups.get(0);
+            List<Result> results = group.decode(source, profile, strategy, globalFrame, multipleResults);
+            mEscalated = group.wasEscalated();
+            return results;
+        }
+
+        List<Integer> idleGroups = new ArrayList<Integer>(mGroups.size());
+        for (int i = 0; i < mGroups.size(); i++) {
+            if (mRunning[i] == null || mRunning[i].isDone()) {
+                idleGroups.add(i);
+            }
+        }
+        if (idleGroups.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // Workers only read the shared copy, which stays valid after the preview buffer is recycled
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final SharedLuminances luminances = getFreeLuminances(width * height);
+        byte[] matrix = source.getMatrix();
+        if (matrix != luminances.mData) {
+            System.arraycopy(matrix, 0, luminances.mData, 0, width * height);
+        }
+        final LuminanceSource shared = new RotatedPlanarYUVLuminanceSource(luminances.mData, width, height, 0,
+                0, 0, width, height);
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        luminances.mUsers.set(idleGroups.size());
+
+        CompletionService<GroupResult> completionService = new ExecutorCompletionService<GroupResult>(mExecutor);
+        List<FormatGroupDecoder> rejectedGroups = new ArrayList<FormatGroupDecoder>();
+        int submitted = 0;
+        for (int i : idleGroups) {
+            final FormatGroupDecoder group = mGroups.get(i);
+            try {
+                mRunning[i] = completionService.submit(new Callable<GroupResult>() {
+                    @Override
+                    public GroupResult call() {
+                        try {
+                            List<Result> results = group.decode(new CancellableLuminanceSource(shared, cancelled),
+                                    profile, strategy, globalFrame, multipleResults);
+                            return new GroupResult(results, group.wasEscalated());
+                        } finally {
+                            luminances.mUsers.decrementAndGet();
+                        }
+                    }
+                });
+                submitted++;
+            } catch (RejectedExecutionException e) {
+                // Shut down while in use, decode on this thread instead
+                rejectedGroups.add(group);
+            }
+        }
+
+        List<Result> allResults = new ArrayList<Result>();
+        for (int i = 0; i < submitted; i++) {
+            GroupResult groupResult;
+            try {
+                groupResult = completionService.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // Cancelled or failed, the other groups may still succeed
+                continue;
+            }
+            mEscalated |= groupResult.mEscalated;
+            allResults.addAll(groupResult.mResults);
+            if (!multipleResults && !allResults.isEmpty()) {
+                break;
+            }
+        }
+        // Groups still running finish in the background, the next frame skips them
+        cancelled.set(true);
+
+        for (FormatGroupDecoder group : rejectedGroups) {
+            if (multipleResults || allResults.isEmpty()) {
+                allResults.addAll(group.decode(shared, profile, strategy, globalFrame, multipleResults));
+                mEscalated |= group.wasEscalated();
+            }
+            luminances.mUsers.decrementAndGet();
+        }
+        return allResults;
+    }
+
+    private SharedLuminances getFreeLuminances(int size) {
+        SharedLuminances luminances = null;
+        for (SharedLuminances candidate : mLuminances) {
+            if (candidate.mUsers.get() == 0) {
+                luminances = candidate;
+                break;
+            }
+        }
+        if (luminances == null) {
+            luminances = new SharedLuminances();
+            mLuminances.add(luminances);
+        }
+        if (luminances.mData == null || luminances.mData.length < size) {
+            luminances.mData = new byte[size];
+            mAllocationCount++;
+        }
+        return luminances;
+    }
+
+    /**
+     * Lets running groups finish and stops the worker threads.
+     */
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private static final class SharedLuminances {
+        private final AtomicInteger mUsers = new AtomicInteger();
+        private byte[] mData;
+    }
+
+    private static final class GroupResult {
+        private final List<Result> mResults;
+        private final boolean mEscalated;
+
+        GroupResult(List<Result> results, boolean escalated) {
+            mResults = results;
+            mEscalated = escalated;
+        }
+    }
+}
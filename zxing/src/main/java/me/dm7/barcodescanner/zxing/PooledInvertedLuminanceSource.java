@@ -0,0 +1,63 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.InvertedLuminanceSource;
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Inverted view of a luminance source that writes its matrix into a pooled buffer.
+ * <p>Unlike {@link InvertedLuminanceSource}, which allocates a new matrix on every call to
+ * {@link #getMatrix()}, the matrix is inverted once per source into the luminance buffer of a
+ * {@link BinarizerBufferPool}, so inverted frames allocate nothing once the buffer is large
+ * enough. The matrix is only valid until the pool hands out its luminance buffer again.</p>
+ */
+final class PooledInvertedLuminanceSource extends LuminanceSource {
+    private final LuminanceSource mDelegate;
+    private final BinarizerBufferPool mPool;
+    private byte[] mMatrix;
+
+    PooledInvertedLuminanceSource(LuminanceSource delegate, BinarizerBufferPool pool) {
+        super(delegate.getWidth(), delegate.getHeight());
+        mDelegate = delegate;
+        mPool = pool;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        row = mDelegate.getRow(y, row);
+        int width = getWidth();
+        for (int i = 0; i < width; i++) {
+            row[i] = (byte) (255 - (row[i] & 0xFF));
+        }
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        if (mMatrix == null) {
+            byte[] matrix = mDelegate.getMatrix();
+            int length = getWidth() * getHeight();
+            byte[] inverted = mPool.getLuminances(getWidth(), getHeight());
+            for (int i = 0; i < length; i++) {
+                inverted[i] = (byte) (255 - (matrix[i] & 0xFF));
+            }
+            mMatrix = inverted;
+        }
+        return mMatrix;
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return mDelegate.isCropSupported();
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        // Only used to look for further barcodes, not worth a buffer of its own
+        return new InvertedLuminanceSource(mDelegate.crop(left, top, width, height));
+    }
+
+    @Override
+    public LuminanceSource invert() {
+        return mDelegate;
+    }
+}
@@ -0,0 +1,176 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Luminance source over the Y plane of a preview frame in sensor orientation, as seen after
+ * rotating the frame clockwise by {@code rotation} degrees and cropping it.
+ * <p>The crop rectangle is given in rotated coordinates and is mapped back to sensor coordinates,
+ * so only the cropped region is ever read. Unrotated frames are read in place; rotated frames have
+ * just the cropped region copied into upright order once, when the source is created.</p>
+ */
+public final class RotatedPlanarYUVLuminanceSource extends LuminanceSource {
+    private final byte[] yuvData;
+    private final int dataWidth;
+    private final int dataHeight;
+    private final int rotation;
+    private final int left;
+    private final int top;
+    // Upright copy of the cropped region, null when the frame is not rotated
+    private final byte[] rotatedLuminances;
+    // Caller provided buffer for the copied region, may be null
+    private final byte[] luminanceBuffer;
+
+    /**
+     * @param yuvData    frame data in sensor orientation, the first {@code dataWidth * dataHeight}
+     *                   bytes being the Y plane
+     * @param dataWidth  width of the frame in sensor orientation
+     * @param dataHeight height of the frame in sensor orientation
+     * @param rotation   clockwise rotation applied to the frame, one of 0, 90, 180 or 270
+     * @param left       left of the crop rectangle in rotated coordinates
+     * @param top        top of the crop rectangle in rotated coordinates
+     * @param width      width of the crop rectangle
+     * @param height     height of the crop rectangle
+     */
+    public RotatedPlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int rotation,
+                                           int left, int top, int width, int height) {
+        this(yuvData, dataWidth, dataHeight, rotation, left, top, width, height, null);
+    }
+
+    /**
+     * Same as {@link #RotatedPlanarYUVLuminanceSource(byte[], int, int, int, int, int, int, int)},
+     * but the cropped region is copied into {@code luminanceBuffer} instead of a new array.
+     *
+     * @param luminanceBuffer buffer of at least {@code width * height} bytes, or null to allocate.
+     *                        It must not be used for anything else while this source is in use.
+     */
+    public RotatedPlanarYUVLuminanceSource(byte[] yuvData, int dataWidth, int dataHeight, int rotation,
+                                           int left, int top, int width, int height, byte[] luminanceBuffer) {
+        super(width, height);
+
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees.");
+        }
+        int rotatedWidth = rotation % 180 == 0 ? dataWidth : dataHeight;
+        int rotatedHeight = rotation % 180 == 0 ? dataHeight : dataWidth;
+        if (left < 0 || top < 0 || left + width > rotatedWidth || top + height > rotatedHeight) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        if (luminanceBuffer != null && luminanceBuffer.length < width * height) {
+            throw new IllegalArgumentException("Luminance buffer is smaller than the crop rectangle.");
+        }
+
+        this.yuvData = yuvData;
+        this.dataWidth = dataWidth;
+        this.dataHeight = dataHeight;
+        this.rotation = rotation;
+        this.left = left;
+        this.top = top;
+        this.luminanceBuffer = luminanceBuffer;
+        this.rotatedLuminances = rotation == 0 ? null : rotateRegion();
+    }
+
+    private byte[] rotateRegion() {
+        int width = getWidth();
+        int height = getHeight();
+        byte[] luminances = luminanceBuffer != null ? luminanceBuffer : new byte[width * height];
+        byte[] yuv = yuvData;
+        int dataWidth = this.dataWidth;
+        int dataHeight = this.dataHeight;
+
+        // (x, y) is the sensor position of the rotated pixel (left + rx, top + ry)
+        switch (rotation) {
+            case 90:
+                for (int ry = 0; ry < height; ry++) {
+                    int outputOffset = ry * width;
+                    int inputOffset = (dataHeight - 1 - left) * dataWidth + top + ry;
+                    for (int rx = 0; rx < width; rx++) {
+                        luminances[outputOffset + rx] = yuv[inputOffset];
+                        inputOffset -= dataWidth;
+                    }
+                }
+                break;
+            case 180:
+                for (int ry = 0; ry < height; ry++) {
+                    int outputOffset = ry * width;
+                    int inputOffset = (dataHeight - 1 - top - ry) * dataWidth + dataWidth - 1 - left;
+                    for (int rx = 0; rx < width; rx++) {
+                        luminances[outputOffset + rx] = yuv[inputOffset - rx];
+                    }
+                }
+                break;
+            case 270:
+                for (int ry = 0; ry < height; ry++) {
+                    int outputOffset = ry * width;
+                    int inputOffset = left * dataWidth + dataWidth - 1 - top - ry;
+                    for (int rx = 0; rx < width; rx++) {
+                        luminances[outputOffset + rx] = yuv[inputOffset];
+                        inputOffset += dataWidth;
+                    }
+                }
+                break;
+        }
+        return luminances;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        if (rotatedLuminances != null) {
+            System.arraycopy(rotatedLuminances, y * width, row, 0, width);
+        } else {
+            System.arraycopy(yuvData, (y + top) * dataWidth + left, row, 0, width);
+        }
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+
+        if (rotatedLuminances != null) {
+            return rotatedLuminances;
+        }
+
+        // If the caller asks for the entire underlying image, save the copy and give them the
+        // original data. The docs specifically warn that result.length must be ignored.
+        if (width == dataWidth && height == dataHeight) {
+            return yuvData;
+        }
+
+        int area = width * height;
+        byte[] matrix = luminanceBuffer != null ? luminanceBuffer : new byte[area];
+        int inputOffset = top * dataWidth + left;
+
+        // If the width matches the full width of the underlying data, perform a single copy.
+        if (width == dataWidth) {
+            System.arraycopy(yuvData, inputOffset, matrix, 0, area);
+            return matrix;
+        }
+
+        for (int y = 0; y < height; y++) {
+            int outputOffset = y * width;
+            System.arraycopy(yuvData, inputOffset, matrix, outputOffset, width);
+            inputOffset += dataWidth;
+        }
+        return matrix;
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new RotatedPlanarYUVLuminanceSource(yuvData, dataWidth, dataHeight, rotation,
+                this.left + left, this.top + top, width, height);
+    }
+}
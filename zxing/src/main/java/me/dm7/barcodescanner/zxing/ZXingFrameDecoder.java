@@ -0,0 +1,333 @@
+package me.dm7.barcodescanner.zxing;
+
+import android.graphics.Rect;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import me.dm7.barcodescanner.core.Frame;
+import me.dm7.barcodescanner.core.FrameDecoder;
+import me.dm7.barcodescanner.core.FrameGeometry;
+
+/**
+ * Decodes the framing rect of preview frames with ZXing.
+ */
+class ZXingFrameDecoder implements FrameDecoder<Result> {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private volatile FormatGroupDecoder mSerialDecoder;
+    private volatile ParallelFormatDecoder mParallelDecoder;
+    // Replaced parallel decoders, shut down on the decode thread once it no longer uses them
+    private final Queue<ParallelFormatDecoder> mRetiredDecoders = new ConcurrentLinkedQueue<ParallelFormatDecoder>();
+    private volatile boolean mAdaptiveFormatOrdering;
+    private volatile boolean mMultipleResults;
+    private volatile BinarizerStrategy mBinarizerStrategy = BinarizerStrategy.HYBRID;
+    private volatile DecodeProfileLadder mDecodeProfileLadder;
+    private final Map<BinarizerStrategy, BinarizerStats> mBinarizerStats;
+    // Recorded by the format group decoders, on the decode and worker threads
+    private final Map<BinarizerType, BinarizerStats> mBinarizerTypeStats;
+    private Collection<BarcodeFormat> mFormats;
+    // Only used on the decoding thread
+    private final BinarizerBufferPool mSourcePool = new BinarizerBufferPool();
+    private long mFrameCount;
+
+    ZXingFrameDecoder(Collection<BarcodeFormat> formats) {
+        mBinarizerStats = new EnumMap<BinarizerStrategy, BinarizerStats>(BinarizerStrategy.class);
+        for (BinarizerStrategy strategy : BinarizerStrategy.values()) {
+            mBinarizerStats.put(strategy, new BinarizerStats(strategy));
+        }
+        mBinarizerTypeStats = new EnumMap<BinarizerType, BinarizerStats>(BinarizerType.class);
+        for (BinarizerType binarizer : BinarizerType.values()) {
+            mBinarizerTypeStats.put(binarizer, new BinarizerStats(binarizer));
+        }
+        setFormats(formats);
+    }
+
+    synchronized void setFormats(Collection<BarcodeFormat> formats) {
+        mFormats = formats;
+        mSerialDecoder = new FormatGroupDecoder(formats, mAdaptiveFormatOrdering, mBinarizerTypeStats);
+        if (mParallelDecoder != null) {
+            mRetiredDecoders.add(mParallelDecoder);
+            mParallelDecoder = new ParallelFormatDecoder(formats, mAdaptiveFormatOrdering, mBinarizerTypeStats);
+        }
+    }
+
+    /**
+     * @param parallelDecoding whether to decode format groups concurrently,
+     *                         see {@link ParallelFormatDecoder}
+     */
+    synchronized void setParallelDecoding(boolean parallelDecoding) {
+        if (parallelDecoding == (mParallelDecoder != null)) {
+            return;
+        }
+        if (parallelDecoding) {
+            mParallelDecoder = new ParallelFormatDecoder(mFormats, mAdaptiveFormatOrdering, mBinarizerTypeStats);
+        } else {
+            mRetiredDecoders.add(mParallelDecoder);
+            mParallelDecoder = null;
+        }
+    }
+
+    boolean isParallelDecoding() {
+        return mParallelDecoder != null;
+    }
+
+    /**
+     * @param adaptiveFormatOrdering whether to try the most frequently found formats first,
+     *                               see {@link AdaptiveFormatReader}
+     */
+    synchronized void setAdaptiveFormatOrdering(boolean adaptiveFormatOrdering) {
+        mAdaptiveFormatOrdering = adaptiveFormatOrdering;
+        for (FormatGroupDecoder group : getActiveGroups()) {
+            group.setAdaptiveFormatOrdering(adaptiveFormatOrdering);
+        }
+    }
+
+    boolean isAdaptiveFormatOrdering() {
+        return mAdaptiveFormatOrdering;
+    }
+
+    List<BarcodeFormat> getFormatRanking() {
+        List<FormatGroupDecoder> groups = getActiveGroups();
+        if (groups.size() == 1) {
+            return groups.get(0).getReader().getFormatRanking();
+        }
+        final Map<BarcodeFormat, Float> scores = new EnumMap<BarcodeFormat, Float>(BarcodeFormat.class);
+        for (FormatGroupDecoder group : groups) {
+            for (BarcodeFormat format : group.getFormats()) {
+                scores.put(format, group.getReader().getScore(format));
+            }
+        }
+        List<BarcodeFormat> ranking = new ArrayList<BarcodeFormat>(scores.keySet());
+        Collections.sort(ranking, new Comparator<BarcodeFormat>() {
+            @Override
+            public int compare(BarcodeFormat lhs, BarcodeFormat rhs) {
+                return Float.compare(scores.get(rhs), scores.get(lhs));
+            }
+        });
+        return ranking;
+    }
+
+    List<BarcodeFormat> getHotFormats() {
+        List<BarcodeFormat> hotFormats = new ArrayList<BarcodeFormat>();
+        for (FormatGroupDecoder group : getActiveGroups()) {
+            hotFormats.addAll(group.getReader().getHotFormats());
+        }
+        return hotFormats;
+    }
+
+    private List<FormatGroupDecoder> getActiveGroups() {
+        ParallelFormatDecoder parallelDecoder = mParallelDecoder;
+        if (parallelDecoder != null) {
+            return parallelDecoder.getGroups();
+        }
+        return Collections.singletonList(mSerialDecoder);
+    }
+
+    /**
+     * @param multipleResults whether to look for all barcodes in a frame instead of the first one
+     */
+    void setMultipleResults(boolean multipleResults) {
+        mMultipleResults = multipleResults;
+    }
+
+    void setBinarizerStrategy(BinarizerStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Binarizer strategy must not be null");
+        }
+        mBinarizerStrategy = strategy;
+    }
+
+    BinarizerStrategy getBinarizerStrategy() {
+        return mBinarizerStrategy;
+    }
+
+    /**
+     * @param ladder decode profiles to escalate through, or null to always use the default hints
+     */
+    void setDecodeProfileLadder(DecodeProfileLadder ladder) {
+        mDecodeProfileLadder = ladder;
+    }
+
+    DecodeProfileLadder getDecodeProfileLadder() {
+        return mDecodeProfileLadder;
+    }
+
+    BinarizerStats getBinarizerStats(BinarizerStrategy strategy) {
+        return mBinarizerStats.get(strategy);
+    }
+
+    BinarizerStats getBinarizerStats(BinarizerType binarizer) {
+        return mBinarizerTypeStats.get(binarizer);
+    }
+
+    /**
+     * @return number of binarization buffers allocated so far, this stops growing once the
+     * framing rect and preview size are stable
+     */
+    long getBufferAllocationCount() {
+        long count = mSourcePool.getAllocationCount() + mSerialDecoder.getBufferPool().getAllocationCount();
+        ParallelFormatDecoder parallelDecoder = mParallelDecoder;
+        if (parallelDecoder != null) {
+            count += parallelDecoder.getBufferAllocationCount();
+        }
+        return count;
+    }
+
+    // Runs on the decode thread, between frames
+    private void shutdownRetiredDecoders() {
+        ParallelFormatDecoder retired;
+        while ((retired = mRetiredDecoders.poll()) != null) {
+            retired.shutdown();
+        }
+    }
+
+    @Override
+    public List<Result> decode(Frame frame) {
+        shutdownRetiredDecoders();
+        FrameGeometry geometry = frame.getGeometry();
+        Rect framingRect = geometry.getFramingRect();
+        Rect region = frame.getRegionOfInterest();
+        if (region == null) {
+            region = framingRect;
+        }
+        LuminanceSource source = buildLuminanceSource(frame.getData(), geometry, region, mSourcePool);
+        if (source == null) {
+            return Collections.emptyList();
+        }
+
+        DecodeProfileLadder ladder = mDecodeProfileLadder;
+        DecodeProfile profile = ladder != null ? ladder.getCurrentProfile() : null;
+        BinarizerStrategy strategy = mBinarizerStrategy;
+        boolean globalFrame = mFrameCount++ % 2 == 0;
+        long start = System.nanoTime();
+        List<Result> results;
+        boolean escalated;
+        ParallelFormatDecoder parallelDecoder = mParallelDecoder;
+        if (parallelDecoder != null) {
+            results = parallelDecoder.decode(source, profile, strategy, globalFrame, mMultipleResults);
+            escalated = parallelDecoder.wasEscalated();
+        } else {
+            FormatGroupDecoder serialDecoder = mSerialDecoder;
+            results = serialDecoder.decode(source, profile, strategy, globalFrame, mMultipleResults);
+            escalated = serialDecoder.wasEscalated();
+        }
+        mBinarizerStats.get(strategy).record(!results.isEmpty(), escalated, System.nanoTime() - start);
+        if (ladder != null) {
+            ladder.onFrameDecoded(!results.isEmpty());
+        }
+
+        if (region != framingRect && !results.isEmpty()) {
+            // Result points are promised relative to the framing rect
+            results = offsetResults(results, region.left - framingRect.left, region.top - framingRect.top);
+        }
+        return results;
+    }
+
+    @Override
+    public void release() {
+        // Only Java objects are held, idle parallel workers time out by themselves
+        shutdownRetiredDecoders();
+    }
+
+    private static List<Result> offsetResults(List<Result> results, int dx, int dy) {
+        List<Result> offsetResults = new ArrayList<Result>(results.size());
+        for (Result result : results) {
+            ResultPoint[] points = result.getResultPoints();
+            ResultPoint[] offsetPoints = null;
+            if (points != null) {
+                offsetPoints = new ResultPoint[points.length];
+                for (int i = 0; i < points.length; i++) {
+                    if (points[i] != null) {
+                        offsetPoints[i] = new ResultPoint(points[i].getX() + dx, points[i].getY() + dy);
+                    }
+                }
+            }
+            Result offsetResult = new Result(result.getText(), result.getRawBytes(), offsetPoints,
+                    result.getBarcodeFormat(), result.getTimestamp());
+            offsetResult.putAllMetadata(result.getResultMetadata());
+            offsetResults.add(offsetResult);
+        }
+        return offsetResults;
+    }
+
+    @Override
+    public String getFormatName(Result result) {
+        return result.getBarcodeFormat().name();
+    }
+
+    @Override
+    public byte[] getRawBytes(Result result) {
+        byte[] rawBytes = result.getRawBytes();
+        if (rawBytes == null) {
+            rawBytes = result.getText().getBytes(UTF_8);
+        }
+        return rawBytes;
+    }
+
+    @Override
+    public Rect getBounds(Result result, Frame frame) {
+        ResultPoint[] points = result.getResultPoints();
+        Rect framingRect = frame.getGeometry().getFramingRect();
+        if (points == null || framingRect == null) {
+            return null;
+        }
+        Rect bounds = null;
+        for (ResultPoint point : points) {
+            if (point == null) {
+                continue;
+            }
+            int x = framingRect.left + (int) point.getX();
+            int y = framingRect.top + (int) point.getY();
+            if (bounds == null) {
+                bounds = new Rect(x, y, x, y);
+            } else {
+                bounds.union(x, y);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Builds a luminance source for the framing rect of a frame in sensor orientation, rotating
+     * only the framing rect into display orientation.
+     *
+     * @param data     frame data in sensor orientation
+     * @param geometry geometry of the frame
+     */
+    static LuminanceSource buildLuminanceSource(byte[] data, FrameGeometry geometry) {
+        return buildLuminanceSource(data, geometry, geometry != null ? geometry.getFramingRect() : null, null);
+    }
+
+    private static LuminanceSource buildLuminanceSource(byte[] data, FrameGeometry geometry, Rect rect,
+                                                        BinarizerBufferPool pool) {
+        if (rect == null) {
+            return null;
+        }
+
+        LuminanceSource source = null;
+
+        try {
+            source = new RotatedPlanarYUVLuminanceSource(data, geometry.getPreviewWidth(),
+                    geometry.getPreviewHeight(), geometry.getRotation(), rect.left, rect.top,
+                    rect.width(), rect.height(),
+                    pool != null ? pool.getLuminances(rect.width(), rect.height()) : null);
+        } catch(Exception e) {
+        }
+
+        return source;
+    }
+}
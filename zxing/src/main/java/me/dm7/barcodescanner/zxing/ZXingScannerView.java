@@ -1,48 +1,43 @@
 package me.dm7.barcodescanner.zxing;
 
 import android.content.Context;
-import android.content.res.Configuration;
 import android.graphics.Rect;
-import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.AttributeSet;
-import android.util.Log;
 
 import com.google.zxing.BarcodeFormat;
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.PlanarYUVLuminanceSource;
-import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.EnumMap;
 import java.util.List;
-import java.util.Map;
 
 import me.dm7.barcodescanner.core.BarcodeScannerView;
-import me.dm7.barcodescanner.core.DisplayUtils;
+import me.dm7.barcodescanner.core.FrameGeometry;
+import me.dm7.barcodescanner.core.FrameResultCallback;
 
 public class ZXingScannerView extends BarcodeScannerView {
     public interface CameraStatusCallback {
         void onCameraReady();
     }
 
-    private static final String TAG = "ZXingScannerView";
-    private boolean cameraReady = false;
-
     public interface ResultHandler {
         void handleResult(Result rawResult);
     }
 
-    private MultiFormatReader mMultiFormatReader;
+    /**
+     * Receives every barcode found in a frame, see {@link #setMultiResultHandler(MultiResultHandler)}
+     */
+    public interface MultiResultHandler {
+        void handleResults(List<Result> rawResults);
+    }
+
+    private ZXingFrameDecoder mFrameDecoder;
     public static final List<BarcodeFormat> ALL_FORMATS = new ArrayList<BarcodeFormat>();
     private List<BarcodeFormat> mFormats;
     private ResultHandler mResultHandler;
+    private MultiResultHandler mMultiResultHandler;
     private List<CameraStatusCallback> mCameraStatusCallbacks = new ArrayList<>();
 
     static {
@@ -63,23 +58,33 @@ public class ZXingScannerView extends BarcodeScannerView {
 
     public ZXingScannerView(Context context) {
         super(context);
-        initMultiFormatReader();
+        initFrameDecoder();
     }
 
     public ZXingScannerView(Context context, AttributeSet attributeSet) {
         super(context, attributeSet);
-        initMultiFormatReader();
+        initFrameDecoder();
     }
 
     public void setFormats(List<BarcodeFormat> formats) {
         mFormats = formats;
-        initMultiFormatReader();
+        mFrameDecoder.setFormats(getFormats());
     }
 
     public void setResultHandler(ResultHandler resultHandler) {
         mResultHandler = resultHandler;
     }
 
+    /**
+     * Sets a handler that receives all barcodes found in a frame. The result points of each
+     * barcode are relative to the framing rect. When set it is used instead of the
+     * {@link ResultHandler}.
+     */
+    public void setMultiResultHandler(MultiResultHandler multiResultHandler) {
+        mMultiResultHandler = multiResultHandler;
+        mFrameDecoder.setMultipleResults(multiResultHandler != null);
+    }
+
     public Collection<BarcodeFormat> getFormats() {
         if(mFormats == null) {
             return ALL_FORMATS;
@@ -87,119 +92,46 @@ public class ZXingScannerView extends BarcodeScannerView {
         return mFormats;
     }
 
-    private void initMultiFormatReader() {
-        Map<DecodeHintType,Object> hints = new EnumMap<DecodeHintType,Object>(DecodeHintType.class);
-        hints.put(DecodeHintType.POSSIBLE_FORMATS, getFormats());
-        mMultiFormatReader = new MultiFormatReader();
-        mMultiFormatReader.setHints(hints);
+    private void initFrameDecoder() {
+        mFrameDecoder = new ZXingFrameDecoder(getFormats());
+        setFrameDecoder(mFrameDecoder, mResultCallback);
     }
 
-    @Override
-    public void onPreviewFrame(byte[] data, Camera camera) {
-        if(mResultHandler == null) {
-            return;
-        }
-
-        if (!cameraReady) {
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    for (CameraStatusCallback c : mCameraStatusCallbacks) {
-                        c.onCameraReady();
-                    }
-                }
-            });
-            cameraReady = true;
+    private final FrameResultCallback<Result> mResultCallback = new FrameResultCallback<Result>() {
+        @Override
+        public boolean isAcceptingResults() {
+            return mResultHandler != null || mMultiResultHandler != null;
         }
 
-        try {
-            Camera.Parameters parameters = camera.getParameters();
-            Camera.Size size = parameters.getPreviewSize();
-            int width = size.width;
-            int height = size.height;
-
-            int displayOrientation = mPreview.getDisplayOrientation();
-            int rotationCount = 0;
-            switch (displayOrientation) {
-                case 0:
-                    rotationCount = 0;
-                    break;
-                case 90:
-                    rotationCount = 1;
-                    break;
-                case 180:
-                    rotationCount = 2;
-                    break;
-                case 270:
-                    rotationCount = 3;
-                    break;
-            }
-
-            for (int i = 0; i < rotationCount; i++) {
-                if (DisplayUtils.getScreenOrientation(getContext()) == Configuration.ORIENTATION_PORTRAIT) {
-                    byte[] rotatedData = new byte[data.length];
-                    for (int y = 0; y < height; y++) {
-                        for (int x = 0; x < width; x++)
-                            rotatedData[x * height + height - y - 1] = data[x + y * width];
-                    }
-                    int tmp = width;
-                    width = height;
-                    height = tmp;
-                    data = rotatedData;
-                }
+        @Override
+        public void onFrameResults(List<Result> rawResults) {
+            ResultHandler tmpResultHandler = mResultHandler;
+            MultiResultHandler tmpMultiResultHandler = mMultiResultHandler;
+            if (!isContinuousScanning()) {
+                // The preview is stopped until resumeCameraPreview is called
+                mResultHandler = null;
+                mMultiResultHandler = null;
+                mFrameDecoder.setMultipleResults(false);
             }
 
-            Result rawResult = null;
-            PlanarYUVLuminanceSource source = buildLuminanceSource(data, width, height);
-
-            if (source != null) {
-                BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-                try {
-                    rawResult = mMultiFormatReader.decodeWithState(bitmap);
-                } catch (ReaderException re) {
-                    // continue
-                } catch (NullPointerException npe) {
-                    // This is terrible
-                } catch (ArrayIndexOutOfBoundsException aoe) {
-
-                } finally {
-                    mMultiFormatReader.reset();
-                }
+            if (tmpMultiResultHandler != null) {
+                tmpMultiResultHandler.handleResults(rawResults);
+            } else if (tmpResultHandler != null) {
+                tmpResultHandler.handleResult(rawResults.get(0));
             }
-
-            final Result finalRawResult = rawResult;
-
-            if (finalRawResult != null) {
-                Handler handler = new Handler(Looper.getMainLooper());
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Stopping the preview can take a little long.
-                        // So we want to set result handler to null to discard subsequent calls to
-                        // onPreviewFrame.
-                        ResultHandler tmpResultHandler = mResultHandler;
-                        mResultHandler = null;
-
-                        stopCameraPreview();
-                        if (tmpResultHandler != null) {
-                            tmpResultHandler.handleResult(finalRawResult);
-                        }
-                    }
-                });
-            } else {
-                camera.setOneShotPreviewCallback(this);
-            }
-        } catch(RuntimeException e) {
-            // TODO: Terrible hack. It is possible that this method is invoked after camera is released.
-            Log.e(TAG, e.toString(), e);
         }
-    }
+    };
 
     public void resumeCameraPreview(ResultHandler resultHandler) {
         mResultHandler = resultHandler;
         super.resumeCameraPreview();
     }
 
+    public void resumeCameraPreview(MultiResultHandler multiResultHandler) {
+        setMultiResultHandler(multiResultHandler);
+        super.resumeCameraPreview();
+    }
+
     public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
         Rect rect = getFramingRectInPreview(width, height);
         if (rect == null) {
@@ -217,10 +149,120 @@ public class ZXingScannerView extends BarcodeScannerView {
         return source;
     }
 
+    /**
+     * Builds a luminance source for the framing rect of a frame in sensor orientation, rotating
+     * only the framing rect into display orientation.
+     *
+     * @param data     frame data in sensor orientation
+     * @param geometry geometry of the frame
+     */
+    public LuminanceSource buildLuminanceSource(byte[] data, FrameGeometry geometry) {
+        return ZXingFrameDecoder.buildLuminanceSource(data, geometry);
+    }
+
+    /**
+     * When enabled, the 1D formats and each 2D format are decoded on their own worker thread at
+     * the same time and the first barcode found ends the frame. This lowers the latency on
+     * multicore devices when several kinds of barcodes are scanned. A 2D reader that is already
+     * detecting cannot be stopped; it keeps running in the background and skips frames until it
+     * is done. Disabled by default.
+     */
+    public void setParallelDecoding(boolean parallelDecoding) {
+        mFrameDecoder.setParallelDecoding(parallelDecoding);
+    }
+
+    public boolean isParallelDecoding() {
+        return mFrameDecoder.isParallelDecoding();
+    }
+
+    /**
+     * When enabled, the formats found most often recently are tried first and on most frames
+     * exclusively. All formats are still tried on a full sweep every few frames, so codes of
+     * other formats are picked up with a small delay. Disabled by default.
+     */
+    public void setAdaptiveFormatOrdering(boolean adaptiveFormatOrdering) {
+        mFrameDecoder.setAdaptiveFormatOrdering(adaptiveFormatOrdering);
+    }
+
+    public boolean isAdaptiveFormatOrdering() {
+        return mFrameDecoder.isAdaptiveFormatOrdering();
+    }
+
+    /**
+     * @return the formats set with {@link #setFormats(List)}, most frequently found first
+     */
+    public List<BarcodeFormat> getFormatRanking() {
+        return mFrameDecoder.getFormatRanking();
+    }
+
+    /**
+     * @return the formats tried between full sweeps while adaptive format ordering is enabled
+     */
+    public List<BarcodeFormat> getHotFormats() {
+        return mFrameDecoder.getHotFormats();
+    }
+
+    /**
+     * Decodes with the first profile while codes read easily and escalates to the next one after
+     * {@code missesPerRung} consecutive frames without a result, see {@link DecodeProfileLadder}.
+     *
+     * @param profiles      profiles from cheapest to most expensive, e.g.
+     *                      {@link DecodeProfile#defaultProfiles()}, or null to always decode with
+     *                      the default hints
+     * @param missesPerRung consecutive misses after which the next profile is used
+     */
+    public void setDecodeProfiles(List<DecodeProfile> profiles, int missesPerRung) {
+        mFrameDecoder.setDecodeProfileLadder(profiles != null ? new DecodeProfileLadder(profiles, missesPerRung) : null);
+    }
+
+    /**
+     * @return the ladder set up by {@link #setDecodeProfiles(List, int)}, e.g. to read its
+     * counters, or null
+     */
+    public DecodeProfileLadder getDecodeProfileLadder() {
+        return mFrameDecoder.getDecodeProfileLadder();
+    }
+
+    /**
+     * Sets how frames are binarized before decoding, see {@link BinarizerStrategy}. The default is
+     * {@link BinarizerStrategy#HYBRID}.
+     */
+    public void setBinarizerStrategy(BinarizerStrategy strategy) {
+        mFrameDecoder.setBinarizerStrategy(strategy);
+    }
+
+    public BinarizerStrategy getBinarizerStrategy() {
+        return mFrameDecoder.getBinarizerStrategy();
+    }
+
+    /**
+     * @return hit rate and latency of the frames decoded with the given strategy so far
+     */
+    public BinarizerStats getBinarizerStats(BinarizerStrategy strategy) {
+        return mFrameDecoder.getBinarizerStats(strategy);
+    }
+
+    /**
+     * @return hit rate and latency of the passes made with the given binarizer so far, whatever
+     * the strategy that chose it
+     */
+    public BinarizerStats getBinarizerStats(BinarizerType binarizer) {
+        return mFrameDecoder.getBinarizerStats(binarizer);
+    }
+
+    /**
+     * @return number of buffers allocated to binarize frames so far. It should stop growing once
+     * the preview and framing rect sizes are stable.
+     */
+    public long getBufferAllocationCount() {
+        return mFrameDecoder.getBufferAllocationCount();
+    }
+
     @Override
-    public void stopCamera() {
-        cameraReady = false;
-        super.stopCamera();
+    protected void onCameraReady() {
+        for (CameraStatusCallback c : mCameraStatusCallbacks) {
+            c.onCameraReady();
+        }
     }
 
     public void registerCameraStatusCallback(CameraStatusCallback callback) {
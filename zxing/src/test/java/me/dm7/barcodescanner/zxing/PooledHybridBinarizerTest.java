@@ -0,0 +1,81 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PooledHybridBinarizerTest {
+    // Frame sizes in the order they are binarized with one pool, growing and shrinking
+    private static final int[][] SIZES = {
+            {320, 240}, {320, 240}, {640, 480}, {200, 150}, {203, 157}, {41, 40}, {640, 480}, {30, 30}
+    };
+
+    @Test
+    public void matchesHybridBinarizerOnNoise() throws NotFoundException {
+        Random random = new Random(42);
+        BinarizerBufferPool pool = new BinarizerBufferPool();
+        for (int[] size : SIZES) {
+            byte[] data = new byte[size[0] * size[1]];
+            random.nextBytes(data);
+            assertSameMatrix(source(data, size[0], size[1]), pool);
+        }
+    }
+
+    @Test
+    public void matchesHybridBinarizerOnSmoothImages() throws NotFoundException {
+        Random random = new Random(7);
+        BinarizerBufferPool pool = new BinarizerBufferPool();
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            byte[] data = new byte[width * height];
+            // Gradient with stripes whose contrast varies per block, so that blocks on both sides
+            // of the minimum dynamic range occur
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int contrast = ((x / 8 + y / 8) * 7) % 50;
+                    int value = x * 150 / width + ((x / 3) % 2) * contrast + random.nextInt(4);
+                    data[y * width + x] = (byte) Math.min(255, value);
+                }
+            }
+            assertSameMatrix(source(data, width, height), pool);
+        }
+    }
+
+    @Test
+    public void matchesHybridBinarizerOnRotatedCrops() throws NotFoundException {
+        Random random = new Random(3);
+        BinarizerBufferPool pool = new BinarizerBufferPool();
+        byte[] data = new byte[640 * 480 * 3 / 2];
+        random.nextBytes(data);
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            LuminanceSource source = new RotatedPlanarYUVLuminanceSource(data, 640, 480, rotation,
+                    17, 23, 300, 200, pool.getLuminances(300, 200));
+            assertSameMatrix(source, pool);
+        }
+    }
+
+    private static LuminanceSource source(byte[] data, int width, int height) {
+        return new RotatedPlanarYUVLuminanceSource(data, width, height, 0, 0, 0, width, height);
+    }
+
+    private static void assertSameMatrix(LuminanceSource source, BinarizerBufferPool pool)
+            throws NotFoundException {
+        BitMatrix expected = new HybridBinarizer(source).getBlackMatrix();
+        BitMatrix actual = new PooledHybridBinarizer(source, pool).getBlackMatrix();
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("Bit at " + x + "," + y, expected.get(x, y), actual.get(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package me.dm7.barcodescanner.zxing;
+
+import com.google.zxing.InvertedLuminanceSource;
+import com.google.zxing.LuminanceSource;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PooledInvertedLuminanceSourceTest {
+    @Test
+    public void matchesInvertedLuminanceSource() {
+        Random random = new Random(5);
+        byte[] data = new byte[640 * 480 * 3 / 2];
+        random.nextBytes(data);
+        BinarizerBufferPool pool = new BinarizerBufferPool();
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            LuminanceSource source = new RotatedPlanarYUVLuminanceSource(data, 640, 480, rotation,
+                    17, 23, 300, 200);
+            LuminanceSource expected = new InvertedLuminanceSource(source);
+            LuminanceSource actual = new PooledInvertedLuminanceSource(source, pool);
+
+            byte[] expectedMatrix = expected.getMatrix();
+            byte[] actualMatrix = actual.getMatrix();
+            for (int i = 0; i < 300 * 200; i++) {
+                assertEquals(expectedMatrix[i], actualMatrix[i]);
+            }
+            for (int y = 0; y < 200; y += 13) {
+                assertArrayEquals(expected.getRow(y, null), actual.getRow(y, new byte[300]));
+            }
+            assertSame(source, actual.invert());
+        }
+    }
+
+    @Test
+    public void reusesPooledBuffer() {
+        byte[] data = new byte[320 * 240];
+        new Random(9).nextBytes(data);
+        BinarizerBufferPool pool = new BinarizerBufferPool();
+        LuminanceSource source = new RotatedPlanarYUVLuminanceSource(data, 320, 240, 0, 10, 10, 200, 150);
+
+        new PooledInvertedLuminanceSource(source, pool).getMatrix();
+        long allocations = pool.getAllocationCount();
+        for (int i = 0; i < 5; i++) {
+            LuminanceSource inverted = new PooledInvertedLuminanceSource(source, pool);
+            assertSame(inverted.getMatrix(), inverted.getMatrix());
+        }
+        assertEquals(allocations, pool.getAllocationCount());
+    }
+}